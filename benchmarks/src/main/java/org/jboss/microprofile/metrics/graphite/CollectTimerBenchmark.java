@@ -0,0 +1,95 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of reporting timers with some attributes disabled through public {@link GraphiteReporter#reportRegistries(Map)}.
+ * Primary score is per timer, secondary score {@code points} is per sent data point.
+ *
+ * @author Libor Krzyzanek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CollectTimerBenchmark {
+
+    static final int TIMERS = 100;
+
+    private static final Set<MetricAttribute> DISABLED = EnumSet.of(MetricAttribute.P98, MetricAttribute.P999, MetricAttribute.M15_RATE);
+
+    @Param({"null", "memory"})
+    public String sender;
+
+    @Param({"false", "true"})
+    public boolean singlePassStatistics;
+
+    private GraphiteReporter reporter;
+
+    private Map<MetricRegistry.Type, MetricRegistry> registries;
+
+    /**
+     * Data points sent per iteration, normalized by JMH like the primary score.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Points {
+        public long points;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            points = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final GraphiteReporter.Builder builder = new GraphiteReporter.Builder()
+                .prefixedWith("benchmark")
+                .disabledMetricAttributes(DISABLED);
+        if (singlePassStatistics) {
+            builder.singlePassStatistics();
+        }
+        reporter = builder.build("null".equals(sender) ? new NullSender() : new InMemorySender());
+        registries = Collections.singletonMap(MetricRegistry.Type.APPLICATION, SyntheticRegistry.timers(TIMERS));
+
+        // timers have all attributes except the disabled ones
+        final ReportResult result = report();
+        final int attributes = MetricAttribute.values().length - DISABLED.size();
+        if (result.getMetrics() != TIMERS || result.getPoints() != TIMERS * attributes) {
+            throw new IllegalStateException("Expected " + TIMERS + " timers with " + attributes + " attributes, got " + result);
+        }
+    }
+
+    private ReportResult report() {
+        return reporter.reportRegistries(registries).get(MetricRegistry.Type.APPLICATION);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TIMERS)
+    public void collectTimer(Points points) {
+        points.points += report().getPoints();
+    }
+}
@@ -0,0 +1,67 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Sender which encodes plaintext lines to reusable direct buffer as socket senders do, cleared on connect.
+ * Lines are encoded from strings, see {@link Ascii} for pre-encoded lines.
+ *
+ * @author Libor Krzyzanek
+ */
+public class DirectBufferSender implements GraphiteSender {
+
+    protected final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024 * 1024);
+
+    private boolean connected;
+
+    @Override
+    public void connect() {
+        ((Buffer) buffer).clear();
+        connected = true;
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+        buffer.put(name.getBytes(StandardCharsets.UTF_8)).put((byte) ' ')
+                .put(value.getBytes(StandardCharsets.UTF_8)).put((byte) ' ')
+                .put(Long.toString(timestamp).getBytes(StandardCharsets.UTF_8)).put((byte) '\n');
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int getFailures() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+
+    public int getBytes() {
+        return buffer.position();
+    }
+
+    /**
+     * Sender which bulk-copies pre-encoded lines to the buffer.
+     */
+    public static class Ascii extends DirectBufferSender implements AsciiGraphiteSender {
+
+        @Override
+        public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) {
+            buffer.put(path).put((byte) ' ').put(value, 0, valueLength).put(timestamp);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@code String.format} with {@link FixedPointFormat} on typical metric values.
+ *
+ * @author Libor Krzyzanek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatBenchmark {
+
+    private static final int VALUES = 1024;
+
+    private final double[] values = new double[VALUES];
+
+    private final char[] buffer = new char[FixedPointFormat.MAX_LENGTH];
+
+    private GraphiteReporter reporter;
+
+    private int i;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        for (int j = 0; j < VALUES; j++) {
+            // durations in ms, rates and percentiles mostly below 100k
+            values[j] = random.nextDouble() * Math.pow(10, random.nextInt(6));
+        }
+        reporter = new GraphiteReporter.Builder().build(null);
+    }
+
+    private double next() {
+        return values[i++ & (VALUES - 1)];
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        return String.format(Locale.US, "%2.2f", next());
+    }
+
+    @Benchmark
+    public String reporterFormat() {
+        return reporter.format(next());
+    }
+
+    @Benchmark
+    public void encodeToBuffer(Blackhole bh) {
+        bh.consume(FixedPointFormat.format(next(), buffer, 0));
+        bh.consume(buffer);
+    }
+}
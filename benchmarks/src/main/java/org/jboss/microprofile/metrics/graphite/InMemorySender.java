@@ -0,0 +1,57 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Sender which writes plaintext lines to reusable in-memory buffer, cleared on connect.
+ *
+ * @author Libor Krzyzanek
+ */
+public class InMemorySender implements GraphiteSender {
+
+    private final StringBuilder buffer = new StringBuilder(1024 * 1024);
+
+    private boolean connected;
+
+    private int lines;
+
+    @Override
+    public void connect() {
+        buffer.setLength(0);
+        lines = 0;
+        connected = true;
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+        buffer.append(name).append(' ').append(value).append(' ').append(timestamp).append('\n');
+        lines++;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int getFailures() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+
+    public int getLines() {
+        return lines;
+    }
+
+    public int getBytes() {
+        return buffer.length();
+    }
+}
@@ -0,0 +1,58 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building metric paths: the former per-report {@code prefix(scope + "." + name, attribute)}
+ * compared with lookup in {@link MetricNameCache}.
+ *
+ * @author Libor Krzyzanek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NameBenchmark {
+
+    private static final int NAMES = 1024;
+
+    private final String[] names = new String[NAMES];
+
+    private MetricNameCache.Scope scope;
+
+    private int i;
+
+    @Setup
+    public void setup() {
+        for (int j = 0; j < NAMES; j++) {
+            names[j] = "com.example.service" + (j % 100) + ".Component" + j + ".duration";
+        }
+        scope = new MetricNameCache("benchmark").beginCycle("application");
+    }
+
+    @Benchmark
+    public String prefix() {
+        final String name = names[i++ & (NAMES - 1)];
+        return MetricRegistry.name("benchmark", "application" + "." + name, MetricAttribute.P99.getCode());
+    }
+
+    @Benchmark
+    public String cached() {
+        final String name = names[i++ & (NAMES - 1)];
+        return scope.entry(name).path(MetricAttribute.P99);
+    }
+}
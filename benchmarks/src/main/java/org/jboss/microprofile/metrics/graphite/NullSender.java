@@ -0,0 +1,41 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Sender which discards everything. Measures reporter overhead only.
+ *
+ * @author Libor Krzyzanek
+ */
+public class NullSender implements GraphiteSender {
+
+    private boolean connected;
+
+    @Override
+    public void connect() {
+        connected = true;
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public int getFailures() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+    }
+}
@@ -0,0 +1,145 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.graphite.Graphite;
+import com.codahale.metrics.graphite.GraphiteSender;
+import com.codahale.metrics.graphite.PickledGraphite;
+
+/**
+ * Throughput of plaintext and pickle senders writing bursts of timer data points to local socket which discards everything.
+ * Batch size is a parameter of pickle senders only.
+ *
+ * @author Libor Krzyzanek
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PickleBenchmark {
+
+    /**
+     * Data points sent between flushes, 100 timers with 15 attributes each.
+     */
+    static final int POINTS = 1500;
+
+    private static final String[] ATTRIBUTES = {"max", "mean", "min", "stddev", "p50", "p75", "p95", "p98", "p99", "p999",
+            "count", "m1_rate", "m5_rate", "m15_rate", "mean_rate"};
+
+    /**
+     * Sender connected to local socket which discards everything.
+     */
+    public abstract static class Sink {
+
+        private final String[] names = new String[POINTS];
+
+        private ServerSocket server;
+
+        private GraphiteSender graphite;
+
+        abstract GraphiteSender create(int port);
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            for (int i = 0; i < POINTS; i++) {
+                names[i] = "prefix.application.com.example.Service.timer" + (i / ATTRIBUTES.length) + "." + ATTRIBUTES[i % ATTRIBUTES.length];
+            }
+            server = new ServerSocket(0);
+            final Thread sink = new Thread(this::discard, "sink");
+            sink.setDaemon(true);
+            sink.start();
+            graphite = create(server.getLocalPort());
+            graphite.connect();
+        }
+
+        private void discard() {
+            byte[] buffer = new byte[64 * 1024];
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept(); InputStream in = socket.getInputStream()) {
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            graphite.close();
+            server.close();
+        }
+
+        void send() throws IOException {
+            final long timestamp = System.currentTimeMillis() / 1000;
+            for (int i = 0; i < POINTS; i++) {
+                graphite.send(names[i], "1234.56", timestamp);
+            }
+            graphite.flush();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Plaintext extends Sink {
+
+        @Override
+        GraphiteSender create(int port) {
+            return new Graphite("localhost", port);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Pickle extends Sink {
+
+        @Param({"pickle", "dropwizard-pickle"})
+        public String sender;
+
+        @Param({"100", "500"})
+        public int batchSize;
+
+        @Override
+        GraphiteSender create(int port) {
+            switch (sender) {
+                case "pickle":
+                    return new PickleGraphiteSender("localhost", port, batchSize);
+                case "dropwizard-pickle":
+                    return new PickledGraphite("localhost", port, batchSize);
+                default:
+                    throw new IllegalArgumentException(sender);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void plaintext(Plaintext sink) throws IOException {
+        sink.send();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void pickle(Pickle sink) throws IOException {
+        sink.send();
+    }
+}
@@ -0,0 +1,69 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Full {@link GraphiteReporter#reportRegistry(MetricRegistry.Type, MetricRegistry)} over synthetic registries.
+ *
+ * @author Libor Krzyzanek
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReportBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"null", "memory", "direct", "ascii"})
+    public String sender;
+
+    private MetricRegistry registry;
+
+    private GraphiteReporter reporter;
+
+    @Setup
+    public void setup() {
+        registry = SyntheticRegistry.create(size);
+        final GraphiteSender graphite;
+        switch (sender) {
+            case "null":
+                graphite = new NullSender();
+                break;
+            case "direct":
+                graphite = new DirectBufferSender();
+                break;
+            case "ascii":
+                graphite = new DirectBufferSender.Ascii();
+                break;
+            default:
+                graphite = new InMemorySender();
+        }
+        reporter = new GraphiteReporter.Builder()
+                .prefixedWith("benchmark")
+                .build(graphite);
+    }
+
+    @Benchmark
+    public void reportRegistry() {
+        reporter.reportRegistry(MetricRegistry.Type.APPLICATION, registry);
+    }
+}
@@ -0,0 +1,92 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.Timer;
+
+import io.smallrye.metrics.MetricsRegistryImpl;
+
+/**
+ * Registry with given number of metrics of mixed types:
+ * 40% counters, 20% gauges, 20% timers, 10% histograms and 10% meters.
+ *
+ * @author Libor Krzyzanek
+ */
+public final class SyntheticRegistry {
+
+    /**
+     * Values recorded into each timer and histogram.
+     */
+    private static final int SAMPLES = 100;
+
+    private static final java.util.logging.Logger SMALLRYE_LOG = java.util.logging.Logger.getLogger("io.smallrye.metrics");
+
+    private SyntheticRegistry() {
+    }
+
+    public static MetricRegistry create(int size) {
+        // SmallRye logs every registration on INFO
+        SMALLRYE_LOG.setLevel(Level.WARNING);
+
+        final MetricRegistry registry = new MetricsRegistryImpl();
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            final String name = "com.example.service" + (i % 100) + ".Component" + i;
+            switch (i % 10) {
+                case 0:
+                case 1:
+                case 2:
+                case 3:
+                    registry.counter(name + ".calls").inc(random.nextInt(100000));
+                    break;
+                case 4:
+                case 5:
+                    final double value = random.nextDouble() * 1000;
+                    registry.register(name + ".level", (Gauge<Double>) () -> value);
+                    break;
+                case 6:
+                case 7:
+                    final Timer timer = registry.timer(name + ".duration");
+                    for (int j = 0; j < SAMPLES; j++) {
+                        timer.update(random.nextInt(1000000), TimeUnit.MICROSECONDS);
+                    }
+                    break;
+                case 8:
+                    final Histogram histogram = registry.histogram(name + ".size");
+                    for (int j = 0; j < SAMPLES; j++) {
+                        histogram.update(random.nextInt(100000));
+                    }
+                    break;
+                default:
+                    final Meter meter = registry.meter(name + ".requests");
+                    meter.mark(random.nextInt(100000));
+                    break;
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * @param size number of timers
+     * @return registry with timers only
+     */
+    public static MetricRegistry timers(int size) {
+        SMALLRYE_LOG.setLevel(Level.WARNING);
+
+        final MetricRegistry registry = new MetricsRegistryImpl();
+        final Random random = new Random(size);
+        for (int i = 0; i < size; i++) {
+            final Timer timer = registry.timer("com.example.service" + (i % 100) + ".Component" + i + ".duration");
+            for (int j = 0; j < SAMPLES; j++) {
+                timer.update(random.nextInt(1000000), TimeUnit.MICROSECONDS);
+            }
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,63 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} accepting plaintext lines as pre-encoded ASCII bytes.
+ * <p>
+ * {@link GraphiteReporter} keeps ASCII bytes of each metric path and renders timestamp once per report,
+ * so no {@link String} is built or encoded per data point. Paths which are not ASCII are sent by
+ * {@link #send(String, String, long)}.
+ *
+ * @author Libor Krzyzanek
+ */
+public interface AsciiGraphiteSender extends GraphiteSender {
+
+    /**
+     * Send one line {@code path value timestamp}. Arrays are owned by the caller and they are reused after the call.
+     *
+     * @param path sanitized ASCII metric path without whitespace
+     * @param value ASCII value
+     * @param valueLength number of bytes of the value
+     * @param timestamp end of the line, i.e. space, timestamp in seconds and new line, e.g. {@code " 1500000000\n"}
+     * @throws IOException if sending fails
+     */
+    void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException;
+
+    /**
+     * Senders wrapping other senders accept ASCII bytes only if the wrapped sender does,
+     * otherwise {@link GraphiteReporter} sends strings to avoid decoding of bytes.
+     *
+     * @return true if the sender benefits from pre-encoded lines
+     */
+    default boolean isAscii() {
+        return true;
+    }
+
+    /**
+     * @param sender sender
+     * @return true if the sender is {@link AsciiGraphiteSender} which benefits from pre-encoded lines
+     */
+    static boolean isAscii(GraphiteSender sender) {
+        return sender instanceof AsciiGraphiteSender && ((AsciiGraphiteSender) sender).isAscii();
+    }
+
+    /**
+     * @param timestamp end of the line as passed to {@link #send(byte[], byte[], int, byte[])}
+     * @return timestamp in seconds
+     */
+    static long parseTimestamp(byte[] timestamp) {
+        long v = 0;
+        boolean negative = false;
+        for (byte b : timestamp) {
+            if (b == '-') {
+                negative = true;
+            } else if (b >= '0' && b <= '9') {
+                v = v * 10 + (b - '0');
+            }
+        }
+        return negative ? -v : v;
+    }
+}
@@ -0,0 +1,81 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Set;
+
+import org.eclipse.microprofile.metrics.MetricType;
+
+/**
+ * Set of {@link MetricAttribute} as bitmask of attribute ordinals.
+ * Bits are iterated in ordinal order by {@code for (int m = mask; m != 0; m &= m - 1)} and
+ * {@link #attribute(int)}.
+ *
+ * @author Libor Krzyzanek
+ */
+final class AttributeMask {
+
+    private static final MetricAttribute[] ATTRIBUTES = MetricAttribute.values();
+
+    static final int COUNT = bit(MetricAttribute.COUNT);
+
+    /**
+     * Attributes computed from {@link org.eclipse.microprofile.metrics.Snapshot}
+     */
+    static final int SNAPSHOT = bit(MetricAttribute.MAX) | bit(MetricAttribute.MEAN) | bit(MetricAttribute.MIN)
+            | bit(MetricAttribute.STDDEV) | bit(MetricAttribute.P50) | bit(MetricAttribute.P75) | bit(MetricAttribute.P95)
+            | bit(MetricAttribute.P98) | bit(MetricAttribute.P99) | bit(MetricAttribute.P999);
+
+    /**
+     * Percentiles of {@link org.eclipse.microprofile.metrics.Snapshot}
+     */
+    static final int PERCENTILES = bit(MetricAttribute.P50) | bit(MetricAttribute.P75) | bit(MetricAttribute.P95)
+            | bit(MetricAttribute.P98) | bit(MetricAttribute.P99) | bit(MetricAttribute.P999);
+
+    static final int RATES = bit(MetricAttribute.M1_RATE) | bit(MetricAttribute.M5_RATE) | bit(MetricAttribute.M15_RATE)
+            | bit(MetricAttribute.MEAN_RATE);
+
+    static final int HISTOGRAM = COUNT | SNAPSHOT;
+
+    static final int METERED = COUNT | RATES;
+
+    static final int TIMER = COUNT | SNAPSHOT | RATES;
+
+    private AttributeMask() {
+    }
+
+    static int bit(MetricAttribute attribute) {
+        return 1 << attribute.ordinal();
+    }
+
+    static int of(Set<MetricAttribute> attributes) {
+        int mask = 0;
+        for (MetricAttribute attribute : attributes) {
+            mask |= bit(attribute);
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask non-zero mask
+     * @return attribute of the lowest bit
+     */
+    static MetricAttribute attribute(int mask) {
+        return ATTRIBUTES[Integer.numberOfTrailingZeros(mask)];
+    }
+
+    /**
+     * @param type {@link MetricType#HISTOGRAM}, {@link MetricType#METERED} or {@link MetricType#TIMER}
+     * @return all attributes reported for given metric type
+     */
+    static int of(MetricType type) {
+        switch (type) {
+            case HISTOGRAM:
+                return HISTOGRAM;
+            case METERED:
+                return METERED;
+            case TIMER:
+                return TIMER;
+            default:
+                throw new IllegalArgumentException("Metric type " + type + " has no attributes");
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Rules selecting reported attributes by scope-qualified metric name, e.g. {@code vendor.*} or {@code base.memory.*Heap}.
+ * <p>
+ * {@code *} matches any characters. Literal prefixes of patterns (up to the first {@code *}) are stored in a prefix trie,
+ * so a name is matched by walking the trie once and checking the rest of candidate patterns only.
+ * The rule with the longest literal prefix wins, rules with the same prefix are tried in declaration order.
+ *
+ * @author Libor Krzyzanek
+ */
+class AttributeRules {
+
+    /**
+     * Result of {@link #match(String)} if no rule matches
+     */
+    static final int NO_MATCH = -1;
+
+    private final Node root = new Node();
+
+    /**
+     * @param rules enabled attributes by pattern in declaration order
+     */
+    AttributeRules(Map<String, Set<MetricAttribute>> rules) {
+        for (Map.Entry<String, Set<MetricAttribute>> rule : rules.entrySet()) {
+            add(rule.getKey(), AttributeMask.of(rule.getValue()));
+        }
+    }
+
+    private void add(String pattern, int attributes) {
+        final int wildcard = pattern.indexOf('*');
+        final String prefix = wildcard < 0 ? pattern : pattern.substring(0, wildcard);
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+        }
+        node.rules.add(new Rule(wildcard < 0 ? "" : pattern.substring(wildcard), attributes));
+    }
+
+    /**
+     * @param name scope-qualified metric name
+     * @return enabled attributes of the matching rule or {@link #NO_MATCH}
+     */
+    int match(String name) {
+        int attributes = matchRules(root, name, 0);
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.children.get(name.charAt(i));
+            if (node == null) {
+                break;
+            }
+            final int match = matchRules(node, name, i + 1);
+            if (match != NO_MATCH) {
+                attributes = match;
+            }
+        }
+        return attributes;
+    }
+
+    private static int matchRules(Node node, String name, int from) {
+        for (Rule rule : node.rules) {
+            if (rule.matches(name, from)) {
+                return rule.attributes;
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final List<Rule> rules = new ArrayList<>(1);
+    }
+
+    private static class Rule {
+        /**
+         * Rest of the pattern after literal prefix, null if it matches anything
+         */
+        private final Pattern rest;
+
+        private final boolean exact;
+
+        private final int attributes;
+
+        private Rule(String rest, int attributes) {
+            this.exact = rest.isEmpty();
+            this.rest = exact || "*".equals(rest) ? null : compile(rest);
+            this.attributes = attributes;
+        }
+
+        private boolean matches(String name, int from) {
+            if (exact) {
+                return from == name.length();
+            }
+            return rest == null || rest.matcher(name).region(from, name.length()).matches();
+        }
+
+        private static Pattern compile(String glob) {
+            final StringBuilder regex = new StringBuilder();
+            int start = 0;
+            for (int i = glob.indexOf('*'); i >= 0; i = glob.indexOf('*', start)) {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(".*");
+                start = i + 1;
+            }
+            if (start < glob.length()) {
+                regex.append(Pattern.quote(glob.substring(start)));
+            }
+            return Pattern.compile(regex.toString(), Pattern.DOTALL);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Arrays;
+
+/**
+ * Data points of one report collected before they are sent.
+ * <p>
+ * Points are stored in columns: metric name id, path and value. Value is kept as raw bits
+ * of long or double so counts are sent without loss of precision. All points of a batch share one timestamp.
+ * Paths are resolved from {@link MetricNameCache} when points are added, so the batch can be sent on another thread
+ * while the cache is used by next collect.
+ * Values of counters and gauges which are sent only when changed are tracked and remembered by their names
+ * only after they were delivered, see {@link #commit(int, int, long)}.
+ * Arrays grow as needed and are reused after {@link #clear()}.
+ *
+ * @author Libor Krzyzanek
+ */
+class DataPointBatch {
+
+    /**
+     * True if ASCII paths are resolved, see {@link #asciiPath(int)}
+     */
+    private final boolean ascii;
+
+    private MetricNameCache.Entry[] names = new MetricNameCache.Entry[64];
+    private int nameCount;
+
+    private int[] nameIds = new int[256];
+    private String[] paths = new String[256];
+    private byte[][] asciiPaths = new byte[256][];
+    private boolean[] floating = new boolean[256];
+    private long[] values = new long[256];
+    private int size;
+
+    private int[] tracked = new int[64];
+    private int trackedCount;
+
+    DataPointBatch() {
+        this(false);
+    }
+
+    /**
+     * @param ascii true to resolve ASCII paths of {@link AsciiGraphiteSender}, {@link String} paths are then resolved
+     * only for points without ASCII path
+     */
+    DataPointBatch(boolean ascii) {
+        this.ascii = ascii;
+    }
+
+    /**
+     * Register metric name.
+     *
+     * @param name cached metric name
+     * @return id of the name in this batch
+     */
+    int name(MetricNameCache.Entry name) {
+        if (nameCount == names.length) {
+            names = Arrays.copyOf(names, nameCount * 2);
+        }
+        names[nameCount] = name;
+        return nameCount++;
+    }
+
+    /**
+     * @param name id returned by {@link #name(MetricNameCache.Entry)}
+     * @param attribute attribute or {@code null} for gauge
+     * @param value value
+     */
+    void add(int name, MetricAttribute attribute, long value) {
+        add(name, attribute, value, false);
+    }
+
+    /**
+     * @param name id returned by {@link #name(MetricNameCache.Entry)}
+     * @param attribute attribute or {@code null} for gauge
+     * @param value value
+     */
+    void add(int name, MetricAttribute attribute, double value) {
+        add(name, attribute, Double.doubleToRawLongBits(value), true);
+    }
+
+    /**
+     * @param name id returned by {@link #name(MetricNameCache.Entry)}
+     * @param attribute attribute or {@code null} for gauge
+     * @param bits long value or raw bits of double value
+     * @param isDouble true if bits hold double value
+     */
+    void add(int name, MetricAttribute attribute, long bits, boolean isDouble) {
+        final MetricNameCache.Entry entry = names[name];
+        byte[] asciiPath = null;
+        if (ascii) {
+            asciiPath = attribute == null ? entry.asciiPath() : entry.asciiPath(attribute);
+        }
+        String path = null;
+        if (asciiPath == null) {
+            path = attribute == null ? entry.path() : entry.path(attribute);
+        }
+        add(name, path, asciiPath, bits, isDouble);
+    }
+
+    /**
+     * Add value of counter or gauge which is remembered by {@link MetricNameCache.Entry#sent(long, long)} on commit.
+     *
+     * @param name id returned by {@link #name(MetricNameCache.Entry)}
+     * @param attribute attribute or {@code null} for gauge
+     * @param bits long value or raw bits of double value
+     * @param isDouble true if bits hold double value
+     */
+    void addTracked(int name, MetricAttribute attribute, long bits, boolean isDouble) {
+        if (trackedCount == tracked.length) {
+            tracked = Arrays.copyOf(tracked, trackedCount * 2);
+        }
+        tracked[trackedCount++] = size;
+        add(name, attribute, bits, isDouble);
+    }
+
+    /**
+     * Remember tracked values of given data points as sent.
+     *
+     * @param from index of first delivered data point
+     * @param to index after last delivered data point
+     * @param timestamp timestamp of the batch in seconds
+     */
+    void commit(int from, int to, long timestamp) {
+        for (int t = 0; t < trackedCount; t++) {
+            final int i = tracked[t];
+            if (i >= from && i < to) {
+                names[nameIds[i]].sent(values[i], timestamp);
+            }
+        }
+    }
+
+    /**
+     * @param name id returned by {@link #name(MetricNameCache.Entry)}
+     * @param quantile index of configured quantile, see {@link MetricNameCache.Entry#quantilePath(int)}
+     * @param value value
+     */
+    void addQuantile(int name, int quantile, double value) {
+        final MetricNameCache.Entry entry = names[name];
+        final byte[] asciiPath = ascii ? entry.asciiQuantilePath(quantile) : null;
+        final String path = asciiPath == null ? entry.quantilePath(quantile) : null;
+        add(name, path, asciiPath, Double.doubleToRawLongBits(value), true);
+    }
+
+    private void add(int name, String path, byte[] asciiPath, long bits, boolean isDouble) {
+        if (size == values.length) {
+            grow();
+        }
+        nameIds[size] = name;
+        paths[size] = path;
+        asciiPaths[size] = asciiPath;
+        floating[size] = isDouble;
+        values[size] = bits;
+        size++;
+    }
+
+    private void grow() {
+        final int capacity = size * 2;
+        nameIds = Arrays.copyOf(nameIds, capacity);
+        paths = Arrays.copyOf(paths, capacity);
+        asciiPaths = Arrays.copyOf(asciiPaths, capacity);
+        floating = Arrays.copyOf(floating, capacity);
+        values = Arrays.copyOf(values, capacity);
+    }
+
+    /**
+     * @return number of data points
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param i index of data point
+     * @return prefixed path of the data point, null if the batch resolves ASCII paths and the point has one
+     */
+    String path(int i) {
+        return paths[i];
+    }
+
+    /**
+     * @param i index of data point
+     * @return ASCII bytes of prefixed path of the data point or null if the path is not ASCII
+     * or if the batch does not resolve ASCII paths
+     */
+    byte[] asciiPath(int i) {
+        return asciiPaths[i];
+    }
+
+    /**
+     * @param i index of data point
+     * @return true if value is double, see {@link #getDouble(int)}, otherwise long, see {@link #getLong(int)}
+     */
+    boolean isDouble(int i) {
+        return floating[i];
+    }
+
+    long getLong(int i) {
+        return values[i];
+    }
+
+    double getDouble(int i) {
+        return Double.longBitsToDouble(values[i]);
+    }
+
+    /**
+     * Remove all data points and names.
+     */
+    void clear() {
+        Arrays.fill(names, 0, nameCount, null);
+        Arrays.fill(paths, 0, size, null);
+        Arrays.fill(asciiPaths, 0, size, null);
+        nameCount = 0;
+        size = 0;
+        trackedCount = 0;
+    }
+}
@@ -0,0 +1,37 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} which keeps connections, threads or files open across reports.
+ * <p>
+ * {@link #close()} only ends a report, {@link #disconnect()} releases everything. Senders wrapping other senders
+ * pass {@link #disconnect()} to them, so {@link GraphiteReporter#close()} reaches every nested sender.
+ *
+ * @author Libor Krzyzanek
+ */
+public interface DisconnectableGraphiteSender extends GraphiteSender {
+
+    /**
+     * Close connections kept open across reports, including connections of wrapped senders.
+     *
+     * @throws IOException if closing fails
+     */
+    void disconnect() throws IOException;
+
+    /**
+     * Disconnect the sender if it is {@link DisconnectableGraphiteSender}, otherwise close it.
+     *
+     * @param sender sender
+     * @throws IOException if closing fails
+     */
+    static void disconnect(GraphiteSender sender) throws IOException {
+        if (sender instanceof DisconnectableGraphiteSender) {
+            ((DisconnectableGraphiteSender) sender).disconnect();
+        } else {
+            sender.close();
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queue of data points stored in memory-mapped segment files.
+ * <p>
+ * Each segment has fixed size and starts with header holding write position, read position, number of unread records
+ * and sequence number. Records are {@code [short name length][name][short value length][value][long timestamp]}.
+ * Segments are read in sequence order so records come out in the order they were appended.
+ * Segments left by previous run are read first. When the number of segments reaches the limit,
+ * the oldest segment is reused with all its unread records lost.
+ * <p>
+ * Mapping of a file cannot be released before garbage collection, so segment files are never deleted while in use.
+ * Segment which was read completely is kept mapped and reused, at most {@code maxSegments} files are mapped.
+ * <p>
+ * {@link #read()} moves read cursor and {@link #commit()} removes records read so far. {@link #rewind()} moves
+ * the cursor back to the first record which was not committed, so unconfirmed records are read again in the same order.
+ * Changes are written to disk by {@link #force()}.
+ *
+ * @author Libor Krzyzanek
+ */
+class DiskSpool implements Closeable {
+
+    Logger log = LoggerFactory.getLogger(DiskSpool.class);
+
+    private static final int MAGIC = 0x47535032;
+
+    private static final int WRITE_POSITION = 4;
+    private static final int READ_POSITION = 8;
+    private static final int RECORDS = 12;
+    private static final int SEQUENCE = 16;
+    private static final int HEADER_LENGTH = 24;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("spool-(\\d+)\\.seg");
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    /**
+     * Segments with records in sequence order
+     */
+    private final Deque<Segment> segments = new ArrayDeque<>();
+
+    /**
+     * Mapped segments without records
+     */
+    private final Deque<Segment> free = new ArrayDeque<>();
+
+    private long nextFile;
+    private long nextSequence;
+    private long records;
+    private long uncommitted;
+    private long dropped;
+
+    private String name;
+    private String value;
+    private long timestamp;
+
+    DiskSpool(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize <= HEADER_LENGTH + 12) {
+            throw new IllegalArgumentException("segmentSize too small");
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments must be positive");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        load();
+    }
+
+    private void load() throws IOException {
+        File[] files = directory.listFiles((dir, n) -> SEGMENT_NAME.matcher(n).matches());
+        if (files == null) {
+            return;
+        }
+        final List<File> unused = new ArrayList<>();
+        final List<Segment> loaded = new ArrayList<>();
+        for (File file : files) {
+            Matcher m = SEGMENT_NAME.matcher(file.getName());
+            m.matches();
+            nextFile = Math.max(nextFile, Long.parseLong(m.group(1)) + 1);
+            if (file.length() != segmentSize) {
+                log.warn("Ignoring spool segment {} of different size", file);
+                continue;
+            }
+            // header is checked before mapping, so unused files are never mapped
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                if (raf.readInt() != MAGIC) {
+                    log.warn("Ignoring spool segment {} of unknown format", file);
+                    unused.add(file);
+                    continue;
+                }
+                raf.seek(RECORDS);
+                if (raf.readInt() == 0) {
+                    unused.add(file);
+                    continue;
+                }
+            }
+            loaded.add(new Segment(file));
+        }
+        loaded.sort(Comparator.comparingLong(Segment::sequence));
+        for (Segment segment : loaded) {
+            segments.addLast(segment);
+            records += segment.records();
+            nextSequence = segment.sequence() + 1;
+        }
+        for (File file : unused) {
+            if (segments.size() + free.size() < maxSegments) {
+                free.addLast(new Segment(file));
+            } else if (!file.delete()) {
+                log.warn("Cannot delete spool segment {}", file);
+            }
+        }
+        if (records > 0) {
+            log.info("Found {} spooled data points in {}", records, directory);
+        }
+    }
+
+    /**
+     * @return true if there is no record which was not committed
+     */
+    boolean isEmpty() {
+        return records == 0;
+    }
+
+    /**
+     * @return number of records which were not committed
+     */
+    long size() {
+        return records;
+    }
+
+    /**
+     * @return number of records read but not committed yet
+     */
+    long uncommitted() {
+        return uncommitted;
+    }
+
+    /**
+     * @return number of records lost because of full spool
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    void append(String name, String value, long timestamp) throws IOException {
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        append(name.getBytes(StandardCharsets.UTF_8), valueBytes, valueBytes.length, timestamp);
+    }
+
+    /**
+     * Append record with UTF-8 encoded name and value, e.g. pre-encoded ASCII line.
+     */
+    void append(byte[] nameBytes, byte[] valueBytes, int valueLength, long timestamp) throws IOException {
+        final int length = 2 + nameBytes.length + 2 + valueLength + 8;
+        if (length > segmentSize - HEADER_LENGTH || nameBytes.length > 0xFFFF || valueLength > 0xFFFF) {
+            dropped++;
+            return;
+        }
+        Segment segment = segments.peekLast();
+        if (segment == null || segmentSize - segment.writePosition() < length) {
+            segment = rotate();
+        }
+        final MappedByteBuffer buffer = segment.buffer;
+        int pos = segment.writePosition();
+        buffer.putShort(pos, (short) nameBytes.length);
+        pos += 2;
+        for (byte b : nameBytes) {
+            buffer.put(pos++, b);
+        }
+        buffer.putShort(pos, (short) valueLength);
+        pos += 2;
+        for (int i = 0; i < valueLength; i++) {
+            buffer.put(pos++, valueBytes[i]);
+        }
+        buffer.putLong(pos, timestamp);
+        pos += 8;
+        // record is complete before it becomes visible
+        buffer.putInt(WRITE_POSITION, pos);
+        buffer.putInt(RECORDS, segment.records() + 1);
+        segment.dirty = true;
+        records++;
+    }
+
+    private Segment rotate() throws IOException {
+        final Segment segment;
+        if (segments.size() >= maxSegments) {
+            segment = segments.removeFirst();
+            log.warn("Spool full, dropping {} data points", segment.records());
+            dropped += segment.records();
+            records -= segment.records();
+            uncommitted -= segment.read;
+        } else if (!free.isEmpty()) {
+            segment = free.removeFirst();
+        } else {
+            segment = new Segment(segmentFile(nextFile++));
+        }
+        segment.reset(nextSequence++);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    /**
+     * Read next record after the read cursor. See {@link #getName()}, {@link #getValue()} and {@link #getTimestamp()}.
+     *
+     * @return false if all records were read
+     */
+    boolean read() {
+        for (Segment segment : segments) {
+            if (segment.read == segment.records()) {
+                continue;
+            }
+            final MappedByteBuffer buffer = segment.buffer;
+            int pos = segment.cursor;
+            final int nameLength = buffer.getShort(pos) & 0xFFFF;
+            pos += 2;
+            name = readString(buffer, pos, nameLength);
+            pos += nameLength;
+            final int valueLength = buffer.getShort(pos) & 0xFFFF;
+            pos += 2;
+            value = readString(buffer, pos, valueLength);
+            pos += valueLength;
+            timestamp = buffer.getLong(pos);
+            pos += 8;
+            segment.cursor = pos;
+            segment.read++;
+            uncommitted++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remove all records read by {@link #read()} since last commit or rewind.
+     */
+    void commit() {
+        while (!segments.isEmpty() && segments.peekFirst().read > 0) {
+            final Segment segment = segments.peekFirst();
+            final int remaining = segment.records() - segment.read;
+            segment.buffer.putInt(READ_POSITION, segment.cursor);
+            segment.buffer.putInt(RECORDS, remaining);
+            segment.dirty = true;
+            records -= segment.read;
+            uncommitted -= segment.read;
+            segment.read = 0;
+            if (remaining > 0) {
+                return;
+            }
+            if (segment == segments.peekLast()) {
+                // reuse current segment
+                segment.reset(segment.sequence());
+                return;
+            }
+            free.addLast(segments.removeFirst());
+        }
+    }
+
+    /**
+     * Move read cursor back to the first record which was not committed.
+     */
+    void rewind() {
+        for (Segment segment : segments) {
+            segment.cursor = segment.readPosition();
+            segment.read = 0;
+        }
+        uncommitted = 0;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    String getValue() {
+        return value;
+    }
+
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Write changed segments to disk.
+     */
+    void force() {
+        for (Segment segment : segments) {
+            segment.force();
+        }
+        for (Segment segment : free) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Write spooled records to disk. Files are not held open, so the spool stays usable after close.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+    }
+
+    private static String readString(MappedByteBuffer buffer, int pos, int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, String.format("spool-%019d.seg", number));
+    }
+
+    private class Segment {
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Position of next record to read, not persisted until commit
+         */
+        private int cursor;
+
+        /**
+         * Number of records read since last commit
+         */
+        private int read;
+
+        private boolean dirty;
+
+        private Segment(File file) throws IOException {
+            // mapping stays valid after the file is closed
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(segmentSize);
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            }
+            this.cursor = readPosition();
+        }
+
+        private void reset(long sequence) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(WRITE_POSITION, HEADER_LENGTH);
+            buffer.putInt(READ_POSITION, HEADER_LENGTH);
+            buffer.putInt(RECORDS, 0);
+            buffer.putLong(SEQUENCE, sequence);
+            cursor = HEADER_LENGTH;
+            read = 0;
+            dirty = true;
+        }
+
+        private int writePosition() {
+            return buffer.getInt(WRITE_POSITION);
+        }
+
+        private int readPosition() {
+            return buffer.getInt(READ_POSITION);
+        }
+
+        private int records() {
+            return buffer.getInt(RECORDS);
+        }
+
+        private long sequence() {
+            return buffer.getLong(SEQUENCE);
+        }
+
+        private void force() {
+            if (dirty) {
+                buffer.force();
+                dirty = false;
+            }
+        }
+    }
+}
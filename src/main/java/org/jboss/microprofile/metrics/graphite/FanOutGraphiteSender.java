@@ -0,0 +1,465 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} writing the same data points to several senders, e.g. to dual-write during migration
+ * between clusters. Backends can be any senders, e.g. {@link PickleGraphiteSender}, {@link UdpGraphiteSender}
+ * or {@link ShardedGraphiteSender}.
+ * <p>
+ * Data points are queued in chunks and the same chunk is queued for all backends. Pre-encoded lines,
+ * see {@link AsciiGraphiteSender}, are passed as bytes to backends which accept them.
+ * Every backend has its own bounded queue and its own daemon thread, so a slow or unavailable backend never stalls
+ * the reporter or the other backends. When queue of a backend is full the oldest chunks of that backend are dropped,
+ * see {@link #getDropped()}. Failed backend is retried with exponential backoff and the chunk which failed
+ * is written again.
+ * <p>
+ * Each chunk is written by {@code connect}, {@code send}, {@code flush} and {@code close} of the backend, wrap backend
+ * in {@link PersistentGraphiteSender} to keep its connection open. Backend is used only by its own thread.
+ * <p>
+ * {@link #flush()} only queues buffered data points and {@link #close()} only ends a report.
+ * Use {@link #disconnect()} to stop the threads and disconnect the backends, data points which were not written stay
+ * queued for next {@link #connect()}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class FanOutGraphiteSender implements AsciiGraphiteSender, DisconnectableGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(FanOutGraphiteSender.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 256 * 1024;
+
+    public static final long DEFAULT_STOP_TIMEOUT_MILLIS = 5000;
+
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 60000;
+
+    /**
+     * Number of data points in a chunk
+     */
+    private static final int CHUNK_SIZE = 1024;
+
+    private final Backend[] backends;
+
+    private final long stopTimeoutMillis;
+
+    private final long maxBackoffMillis;
+
+    private Chunk chunk = new Chunk();
+
+    /**
+     * Copy of last pre-encoded timestamp, shared by data points of the same report
+     */
+    private byte[] lastTimestamp = new byte[0];
+
+    private long lastTimestampValue;
+
+    private boolean started;
+
+    private boolean connected;
+
+    /**
+     * Create sender with default queue capacity and timeouts.
+     *
+     * @param backends senders to write data points to
+     */
+    public FanOutGraphiteSender(List<GraphiteSender> backends) {
+        this(backends, DEFAULT_QUEUE_CAPACITY, DEFAULT_STOP_TIMEOUT_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param backends senders to write data points to
+     * @param queueCapacity capacity of queue of each backend in data points
+     * @param stopTimeout time {@link #disconnect()} waits for each backend to write its queue
+     * @param maxBackoff maximal delay between attempts of failed backend
+     * @param unit unit of durations
+     */
+    public FanOutGraphiteSender(List<GraphiteSender> backends, int queueCapacity, long stopTimeout, long maxBackoff, TimeUnit unit) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("At least one backend is required");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive");
+        }
+        this.backends = new Backend[backends.size()];
+        for (int i = 0; i < this.backends.length; i++) {
+            this.backends[i] = new Backend(i, backends.get(i), queueCapacity);
+        }
+        this.stopTimeoutMillis = Math.max(1, unit.toMillis(stopTimeout));
+        this.maxBackoffMillis = Math.max(1, unit.toMillis(maxBackoff));
+    }
+
+    /**
+     * Start backends on first call. Never fails, backends connect on their own threads.
+     */
+    @Override
+    public synchronized void connect() throws IllegalStateException {
+        if (connected) {
+            throw new IllegalStateException("Already connected");
+        }
+        if (!started) {
+            for (Backend backend : backends) {
+                backend.start();
+            }
+            started = true;
+        }
+        connected = true;
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) {
+        final int i = chunk.size++;
+        chunk.names[i] = name;
+        chunk.values[i] = value;
+        chunk.timestamps[i] = timestamp;
+        if (chunk.size == CHUNK_SIZE) {
+            publish();
+        }
+    }
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) {
+        if (!Arrays.equals(timestamp, lastTimestamp)) {
+            lastTimestamp = timestamp.clone();
+            lastTimestampValue = AsciiGraphiteSender.parseTimestamp(timestamp);
+        }
+        final int i = chunk.size++;
+        chunk.paths[i] = path.clone();
+        chunk.asciiValues[i] = Arrays.copyOf(value, valueLength);
+        chunk.asciiTimestamps[i] = lastTimestamp;
+        chunk.timestamps[i] = lastTimestampValue;
+        if (chunk.size == CHUNK_SIZE) {
+            publish();
+        }
+    }
+
+    /**
+     * Queue buffered data points for all backends. Does not wait for the network.
+     */
+    @Override
+    public void flush() {
+        publish();
+    }
+
+    /**
+     * End a report. Buffered data points are queued, backends stay connected.
+     */
+    @Override
+    public synchronized void close() {
+        publish();
+        connected = false;
+    }
+
+    /**
+     * Stop all backends. Waits up to stop timeout for each backend to write its queue, then the thread of the backend
+     * disconnects the backend, see {@link DisconnectableGraphiteSender#disconnect(GraphiteSender)}.
+     * Backend which does not stop in time ends after its current write.
+     */
+    @Override
+    public synchronized void disconnect() {
+        close();
+        for (Backend backend : backends) {
+            backend.stop();
+        }
+        for (Backend backend : backends) {
+            backend.await(stopTimeoutMillis);
+        }
+        started = false;
+    }
+
+    /**
+     * @return number of consecutive failures summed over all backends
+     */
+    @Override
+    public int getFailures() {
+        int failures = 0;
+        for (Backend backend : backends) {
+            failures += backend.getFailures();
+        }
+        return failures;
+    }
+
+    /**
+     * @return sum of bytes sent by all backends on their threads, {@code -1} if any backend does not count them
+     */
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+        for (Backend backend : backends) {
+            final long backendBytes = MeteredGraphiteSender.bytesSent(backend.sender);
+            if (backendBytes < 0) {
+                return -1;
+            }
+            bytes += backendBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return always zero, backends connect on their own threads
+     */
+    @Override
+    public long getConnects() {
+        return 0;
+    }
+
+    /**
+     * @return number of data points dropped because of full queue, summed over all backends
+     */
+    public long getDropped() {
+        long dropped = 0;
+        for (Backend backend : backends) {
+            dropped += backend.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * @return number of data points waiting in queues of all backends
+     */
+    public long getQueued() {
+        long queued = 0;
+        for (Backend backend : backends) {
+            queued += backend.getQueued();
+        }
+        return queued;
+    }
+
+    private void publish() {
+        if (chunk.size == 0) {
+            return;
+        }
+        for (Backend backend : backends) {
+            backend.offer(chunk);
+        }
+        // published chunk is shared by backends, next data points go to new chunk
+        chunk = new Chunk();
+    }
+
+    /**
+     * Data points shared by all backends, never modified after publishing. Pre-encoded data points have path,
+     * the others have name.
+     */
+    private static class Chunk {
+        private final String[] names = new String[CHUNK_SIZE];
+        private final String[] values = new String[CHUNK_SIZE];
+        private final long[] timestamps = new long[CHUNK_SIZE];
+        private final byte[][] paths = new byte[CHUNK_SIZE][];
+        private final byte[][] asciiValues = new byte[CHUNK_SIZE][];
+        private final byte[][] asciiTimestamps = new byte[CHUNK_SIZE][];
+        private int size;
+    }
+
+    /**
+     * Queue and sender of one backend. The sender is used only by the writer thread.
+     */
+    private class Backend implements Runnable {
+        private final int index;
+        private final GraphiteSender sender;
+        private final AsciiGraphiteSender asciiSender;
+        private final int capacity;
+
+        private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+        private long queued;
+        private long dropped;
+        private int failures;
+
+        /**
+         * Chunk being written, never dropped
+         */
+        private Chunk writing;
+        private boolean stopping;
+        private Thread thread;
+
+        private Backend(int index, GraphiteSender sender, int capacity) {
+            this.index = index;
+            this.sender = sender;
+            this.asciiSender = sender instanceof AsciiGraphiteSender ? (AsciiGraphiteSender) sender : null;
+            this.capacity = capacity;
+        }
+
+        /**
+         * Start writer thread. Thread which outlived {@link #await(long)} keeps writing, so there is never more than
+         * one thread using sender of this backend.
+         */
+        private synchronized void start() {
+            stopping = false;
+            if (thread == null) {
+                startThread();
+            }
+        }
+
+        private void startThread() {
+            thread = new Thread(this, "graphite-fan-out-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private synchronized void offer(Chunk chunk) {
+            if (chunk.size > capacity) {
+                dropped += chunk.size;
+                return;
+            }
+            while (queued + chunk.size > capacity) {
+                Chunk oldest = queue.pollFirst();
+                if (oldest == writing) {
+                    final Chunk next = queue.pollFirst();
+                    queue.addFirst(oldest);
+                    oldest = next;
+                }
+                if (oldest == null) {
+                    // only the chunk being written is queued
+                    dropped += chunk.size;
+                    return;
+                }
+                queued -= oldest.size;
+                dropped += oldest.size;
+            }
+            queue.addLast(chunk);
+            queued += chunk.size;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            long backoff = 0;
+            while (true) {
+                final Chunk chunk;
+                synchronized (this) {
+                    try {
+                        while (queue.isEmpty() && !stopping) {
+                            wait();
+                        }
+                        // new chunks do not end the backoff
+                        final long retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff);
+                        for (long left = backoff; left > 0 && !stopping; left = TimeUnit.NANOSECONDS.toMillis(retryAt - System.nanoTime())) {
+                            wait(left);
+                        }
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    chunk = queue.peekFirst();
+                    writing = chunk;
+                }
+                try {
+                    write(chunk);
+                    backoff = 0;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Unable to write to Graphite backend {}: {}", index, e.toString());
+                    closeQuietly();
+                    backoff = Math.min(maxBackoffMillis, backoff == 0 ? 1000 : backoff * 2);
+                    synchronized (this) {
+                        failures++;
+                        writing = null;
+                        if (stopping) {
+                            log.warn("Graphite backend {} stopped, {} queued data points not sent", index, queued);
+                            break;
+                        }
+                    }
+                    continue;
+                }
+                synchronized (this) {
+                    writing = null;
+                    failures = 0;
+                    queue.pollFirst();
+                    queued -= chunk.size;
+                }
+            }
+            try {
+                DisconnectableGraphiteSender.disconnect(sender);
+            } catch (IOException e) {
+                log.debug("Error disconnecting Graphite backend {}", index, e);
+            }
+            synchronized (this) {
+                thread = null;
+                if (!stopping) {
+                    // started again while this thread was ending
+                    startThread();
+                }
+            }
+        }
+
+        private void write(Chunk chunk) throws IOException {
+            sender.connect();
+            for (int i = 0; i < chunk.size; i++) {
+                final byte[] path = chunk.paths[i];
+                if (path == null) {
+                    sender.send(chunk.names[i], chunk.values[i], chunk.timestamps[i]);
+                } else if (asciiSender != null) {
+                    asciiSender.send(path, chunk.asciiValues[i], chunk.asciiValues[i].length, chunk.asciiTimestamps[i]);
+                } else {
+                    sender.send(new String(path, StandardCharsets.US_ASCII),
+                            new String(chunk.asciiValues[i], StandardCharsets.US_ASCII), chunk.timestamps[i]);
+                }
+            }
+            sender.flush();
+            sender.close();
+        }
+
+        /**
+         * Failed flush leaves the connection open, next connect would fail.
+         */
+        private void closeQuietly() {
+            try {
+                sender.close();
+            } catch (IOException e) {
+                log.debug("Error closing Graphite backend {}", index, e);
+            }
+        }
+
+        private synchronized void stop() {
+            stopping = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait for writer thread to end. Thread which does not end in time keeps writing, see {@link #start()}.
+         */
+        private void await(long millis) {
+            final Thread thread;
+            synchronized (this) {
+                thread = this.thread;
+            }
+            if (thread == null) {
+                return;
+            }
+            try {
+                thread.join(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                log.warn("Graphite backend {} did not write queued data in {}ms", index, millis);
+            }
+        }
+
+        private synchronized int getFailures() {
+            return failures;
+        }
+
+        private synchronized long getDropped() {
+            return dropped;
+        }
+
+        private synchronized long getQueued() {
+            return queued;
+        }
+    }
+}
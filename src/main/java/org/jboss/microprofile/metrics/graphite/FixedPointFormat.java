@@ -0,0 +1,92 @@
+package org.jboss.microprofile.metrics.graphite;
+
+/**
+ * Allocation free encoder of doubles to the Carbon plaintext representation.
+ * Output is identical to {@code String.format(Locale.US, "%2.2f", v)}.
+ * <p>
+ * {@link java.util.Formatter} rounds the shortest decimal representation of the value half-up.
+ * Values which are too close to a rounding boundary to decide that from the binary value,
+ * or which are too large for a {@code long} scaled by 100, are rejected and callers have to fall back to {@code String.format}.
+ *
+ * @author Libor Krzyzanek
+ */
+final class FixedPointFormat {
+
+    /**
+     * Maximum number of chars written by {@link #format(double, char[], int)}.
+     */
+    static final int MAX_LENGTH = 20;
+
+    /**
+     * Largest absolute value handled without fall back. Scaled by 100 it stays well below 2^53.
+     */
+    private static final double MAX_VALUE = 1e13;
+
+    private static final char[] NAN = "NaN".toCharArray();
+
+    private static final char[] INFINITY = "Infinity".toCharArray();
+
+    private FixedPointFormat() {
+    }
+
+    /**
+     * Write value with two fraction digits to the buffer.
+     *
+     * @param v value
+     * @param buf target buffer, at least {@link #MAX_LENGTH} chars from {@code off}
+     * @param off offset in buffer
+     * @return number of chars written or -1 if value has to be formatted by {@code String.format}
+     */
+    static int format(double v, char[] buf, int off) {
+        if (Double.isNaN(v)) {
+            return copy(NAN, buf, off);
+        }
+        int pos = off;
+        if (Double.doubleToRawLongBits(v) < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        if (v == Double.POSITIVE_INFINITY) {
+            return pos - off + copy(INFINITY, buf, pos);
+        }
+        if (v >= MAX_VALUE) {
+            return -1;
+        }
+
+        final double scaled = v * 100;
+        final double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) <= 2 * Math.ulp(scaled)) {
+            // decimal representation may be exactly on the boundary
+            return -1;
+        }
+        final long rounded = (long) Math.floor(scaled + 0.5);
+        final long units = rounded / 100;
+        final int cents = (int) (rounded - units * 100);
+
+        pos += digits(units);
+        int end = pos;
+        long n = units;
+        do {
+            buf[--end] = (char) ('0' + (n % 10));
+            n /= 10;
+        } while (n != 0);
+        buf[pos++] = '.';
+        buf[pos++] = (char) ('0' + cents / 10);
+        buf[pos++] = (char) ('0' + cents % 10);
+        return pos - off;
+    }
+
+    private static int digits(long n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private static int copy(char[] src, char[] buf, int off) {
+        System.arraycopy(src, 0, buf, off, src.length);
+        return src.length;
+    }
+}
@@ -1,22 +1,51 @@
 package org.jboss.microprofile.metrics.graphite;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import org.eclipse.microprofile.metrics.Counter;
 import org.eclipse.microprofile.metrics.Gauge;
 import org.eclipse.microprofile.metrics.Histogram;
 import org.eclipse.microprofile.metrics.Meter;
+import org.eclipse.microprofile.metrics.Metadata;
 import org.eclipse.microprofile.metrics.Metered;
+import org.eclipse.microprofile.metrics.Metric;
 import org.eclipse.microprofile.metrics.MetricFilter;
 import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.Sampling;
 import org.eclipse.microprofile.metrics.Snapshot;
 import org.eclipse.microprofile.metrics.Timer;
 import org.slf4j.Logger;
@@ -25,20 +54,6 @@ import org.slf4j.LoggerFactory;
 import com.codahale.metrics.graphite.GraphiteSender;
 
 import static org.jboss.microprofile.metrics.graphite.MetricAttribute.COUNT;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.M15_RATE;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.M1_RATE;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.M5_RATE;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.MAX;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.MEAN;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.MEAN_RATE;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.MIN;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P50;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P75;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P95;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P98;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P99;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.P999;
-import static org.jboss.microprofile.metrics.graphite.MetricAttribute.STDDEV;
 
 /**
  * Micro profile Metrics Reporter to Graphite.
@@ -46,56 +61,430 @@ import static org.jboss.microprofile.metrics.graphite.MetricAttribute.STDDEV;
  *
  * @author Libor Krzyzanek
  */
-public class GraphiteReporter {
+public class GraphiteReporter implements Closeable {
 
     Logger log = LoggerFactory.getLogger(GraphiteReporter.class);
 
+    private static final Pattern TAG_NAME_INVALID = Pattern.compile("[;!^=]");
+
+    private static final Pattern TAG_VALUE_INVALID = Pattern.compile("^~|;");
+
     private GraphiteSender graphite;
 
+    /**
+     * Graphite accepting ASCII bytes, null if it does not or if values are formatted by subclass
+     */
+    private final AsciiGraphiteSender asciiGraphite;
+
     private String prefix;
 
     private Set<MetricAttribute> disabledMetricAttributes;
 
+    /**
+     * Attributes disabled for one metric type in addition to {@link #getDisabledMetricAttributes()}
+     */
+    private final Map<MetricType, Set<MetricAttribute>> disabledTypeAttributes;
+
+    /**
+     * True if subclass overrides {@link #getDisabledMetricAttributes()}, it is then consulted on each report
+     */
+    private final boolean disabledAttributesOverridden;
+
+    /**
+     * Enabled attributes of each metric type, see {@link AttributeMask}
+     */
+    private int histogramAttributes;
+    private int meterAttributes;
+    private int timerAttributes;
+
+    /**
+     * Attributes selected by metric name, null if there are no rules
+     */
+    private final AttributeRules attributeRules;
+
+    private final boolean taggedSeries;
+
     private MetricFilter filter;
 
+    private final MetricNameCache names;
+
+    private final char[] formatBuffer = new char[FixedPointFormat.MAX_LENGTH];
+
+    private byte[] valueBuffer = new byte[FixedPointFormat.MAX_LENGTH];
+
+    /**
+     * End of line with timestamp of {@link #tokenTimestamp}, e.g. {@code " 1500000000\n"}
+     */
+    private byte[] timestampToken;
+
+    private long tokenTimestamp;
+
+    private int points;
+
+    private long bytes;
+
+    private int skippedAttributes;
+
+    /**
+     * Quantiles reported instead of fixed percentiles, null if not configured
+     */
+    private final double[] quantiles;
+
+    /**
+     * Single-pass statistics of snapshots, null if snapshot methods are called
+     */
+    private final SnapshotStatistics statistics;
+
+    /**
+     * Metrics of the reporter itself, null if not enabled
+     */
+    private final ReporterMetrics selfMetrics;
+
+    /**
+     * Batch of synchronous reports
+     */
+    private final DataPointBatch batch;
+
     private final long durationFactor;
     private final String durationUnit;
     private final long rateFactor;
     private final String rateUnit;
 
+    private final Map<MetricRegistry.Type, MetricRegistry> registries;
+
+    /**
+     * Seconds after which unchanged counter or gauge is sent again, -1 if all values are sent
+     */
+    private final long heartbeat;
+
+    /**
+     * Executor of parallel snapshots given by user, null if reporter uses own pool
+     */
+    private final Executor snapshotExecutor;
+
+    /**
+     * Own pool of parallel snapshots, created on first use and shut down by {@link #close()}
+     */
+    private ForkJoinPool ownSnapshotPool;
+
+    private final int snapshotParallelism;
+
+    private final int minSnapshotBatch;
+
+    private final ReentrantLock scheduledReportLock = new ReentrantLock();
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Send phase of scheduled reports
+     */
+    private ExecutorService sender;
+
+    /**
+     * Scheduled reports alternate the batches so the next one is collected while previous one is being sent
+     */
+    private final DataPointBatch[] scheduledBatches;
+
+    private int scheduledCycle;
+
+    private Future<?> pendingSend;
+
+    /**
+     * Commit of the pending send, run on reporter thread once the send is done
+     */
+    private Runnable pendingCommit;
+
+    private long periodMillis;
+
+    /**
+     * Boundary of last scheduled report in milliseconds, guarded by {@link #scheduledReportLock}
+     */
+    private long reportedBoundary;
+
     protected GraphiteReporter(GraphiteSender graphite, String prefix, TimeUnit rateUnit, TimeUnit durationUnit, Set<MetricAttribute> disabledMetricAttributes, MetricFilter filter) {
+        this(graphite, new Builder()
+                .prefixedWith(prefix)
+                .convertRatesTo(rateUnit)
+                .convertDurationsTo(durationUnit)
+                .disabledMetricAttributes(disabledMetricAttributes)
+                .filter(filter));
+    }
+
+    protected GraphiteReporter(GraphiteSender graphite, Builder builder) {
         this.graphite = graphite;
-        this.prefix = prefix;
-        this.rateFactor = rateUnit.toSeconds(1);
-        this.rateUnit = calculateRateUnit(rateUnit);
-        this.durationFactor = durationUnit.toNanos(1);
-        this.durationUnit = durationUnit.toString().toLowerCase(Locale.US);
-        this.disabledMetricAttributes = disabledMetricAttributes;
-        this.filter = filter;
+        this.asciiGraphite = AsciiGraphiteSender.isAscii(graphite) && !isOverridden("format", double.class) ? (AsciiGraphiteSender) graphite : null;
+        this.batch = new DataPointBatch(asciiGraphite != null);
+        this.scheduledBatches = new DataPointBatch[]{new DataPointBatch(asciiGraphite != null), new DataPointBatch(asciiGraphite != null)};
+        this.prefix = builder.prefix;
+        this.rateFactor = builder.rateUnit.toSeconds(1);
+        this.rateUnit = calculateRateUnit(builder.rateUnit);
+        this.durationFactor = builder.durationUnit.toNanos(1);
+        this.durationUnit = builder.durationUnit.toString().toLowerCase(Locale.US);
+        this.disabledMetricAttributes = Collections.unmodifiableSet(EnumSet.copyOf(builder.disabledMetricAttributes));
+        this.disabledTypeAttributes = new EnumMap<>(builder.disabledTypeAttributes);
+        this.disabledAttributesOverridden = isOverridden("getDisabledMetricAttributes");
+        resolveAttributes(this.disabledMetricAttributes);
+        this.attributeRules = builder.attributeRules.isEmpty() ? null : new AttributeRules(builder.attributeRules);
+        this.taggedSeries = builder.taggedSeries;
+        this.filter = builder.filter;
+        this.registries = new EnumMap<>(builder.registries);
+        this.heartbeat = builder.heartbeat;
+        this.snapshotParallelism = builder.snapshotParallelism;
+        this.minSnapshotBatch = builder.minSnapshotBatch;
+        this.snapshotExecutor = builder.snapshotExecutor;
+        this.quantiles = builder.quantiles;
+        this.names = new MetricNameCache(prefix, quantiles != null ? quantiles : new double[0]);
+        this.statistics = builder.singlePassStatistics ? new SnapshotStatistics() : null;
+        this.selfMetrics = builder.selfMetrics == null ? null : new ReporterMetrics(builder.selfMetrics);
     }
 
     /**
-     * Report multiple registries
+     * Start reporting registries added via {@link Builder#registry(MetricRegistry.Type, MetricRegistry)}
+     * periodically on own daemon thread.
+     * <p>
+     * Reports are aligned to period boundaries since epoch (e.g. to whole minutes) and data points carry
+     * timestamp of the boundary. Next report is scheduled from wall clock after each run so it does not drift,
+     * each boundary is reported at most once.
+     * Boundaries missed because previous report was still running are skipped.
+     * <p>
+     * Values of all registries are collected first on the reporter thread and then sent on separate sender thread,
+     * so slow network does not stretch the time window in which values are read.
+     * Reports requested by other methods while the reporter is started wait for the running scheduled report.
+     *
+     * @param period period between reports, rounded to milliseconds
+     * @param unit unit of period
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("Reporter already started");
+        }
+        if (registries.isEmpty()) {
+            throw new IllegalStateException("No registry to report. Use Builder.registry()");
+        }
+        periodMillis = unit.toMillis(period);
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be at least one millisecond");
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "graphite-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // stop() must not wait for next period
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.executor = executor;
+        this.sender = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "graphite-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log.info("Starting GraphiteReporter with period {}ms", periodMillis);
+        reportedBoundary = 0;
+        scheduleNextReport(executor, 0);
+    }
+
+    /**
+     * Stop periodic reporting started by {@link #start(long, TimeUnit)}.
+     * Waits for running report, reports all registries for the last time and closes connection.
+     * Last report carries timestamp of the next boundary and it is skipped if that boundary was already reported.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        log.info("Stopping GraphiteReporter");
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(periodMillis, TimeUnit.MILLISECONDS)) {
+                log.warn("Running report did not finish in {}ms", periodMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor = null;
+
+        scheduledReportLock.lock();
+        try {
+            // last report is sent after the pending one, values read after last boundary belong to the next one
+            final long boundary = (System.currentTimeMillis() / periodMillis + 1) * periodMillis;
+            if (boundary > reportedBoundary) {
+                collectAndHandOff(boundary / 1000);
+            } else {
+                log.debug("Boundary {} already reported, skipping last report", boundary);
+            }
+            sender.shutdown();
+            if (sender.awaitTermination(periodMillis, TimeUnit.MILLISECONDS)) {
+                awaitPendingSend();
+            } else {
+                log.warn("Last report was not sent in {}ms", periodMillis);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sender.shutdown();
+            sender = null;
+            pendingSend = null;
+            pendingCommit = null;
+            try {
+                close();
+            } catch (IOException e) {
+                log.warn("Error closing Graphite", e);
+            }
+            scheduledReportLock.unlock();
+        }
+    }
+
+    /**
+     * @param lastBoundary boundary of last report, next report is never scheduled for the same boundary
+     * even if the executor fired before the wall clock reached it
+     */
+    private void scheduleNextReport(ScheduledExecutorService executor, long lastBoundary) {
+        final long now = System.currentTimeMillis();
+        final long boundary = (Math.max(now, lastBoundary) / periodMillis + 1) * periodMillis;
+        try {
+            executor.schedule(() -> scheduledReport(executor, boundary), boundary - now, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Reporter stopped, report at {} not scheduled", boundary);
+        }
+    }
+
+    private void scheduledReport(ScheduledExecutorService executor, long boundary) {
+        if (scheduledReportLock.tryLock()) {
+            try {
+                collectAndHandOff(boundary / 1000);
+                reportedBoundary = boundary;
+            } catch (RuntimeException e) {
+                log.warn("Report failed", e);
+            } finally {
+                scheduledReportLock.unlock();
+            }
+        } else {
+            log.warn("Previous report still running, skipping report at {}", boundary);
+        }
+        final long missed = (System.currentTimeMillis() - boundary) / periodMillis;
+        if (missed > 0) {
+            log.warn("Report took longer than period, skipping {} report(s)", missed);
+        }
+        scheduleNextReport(executor, boundary);
+    }
+
+    /**
+     * Collect all registries and hand the batch to sender thread. Waits until previous batch is sent.
+     */
+    private void collectAndHandOff(long timestamp) {
+        if (pendingSend != null && pendingSend.isDone()) {
+            // unchanged values sent by previous report are skipped
+            awaitPendingSend();
+        }
+        final DataPointBatch batch = scheduledBatches[scheduledCycle++ & 1];
+        final List<RegistryMetrics> collected = collect(registries, batch, timestamp);
+        if (!awaitPendingSend()) {
+            return;
+        }
+        try {
+            pendingCommit = () -> commit(collected, batch, timestamp);
+            pendingSend = sender.submit(() -> {
+                send(collected, batch, timestamp);
+                if (log.isDebugEnabled()) {
+                    long collectNanos = 0;
+                    long sendNanos = 0;
+                    for (RegistryMetrics metrics : collected) {
+                        collectNanos += metrics.collectNanos;
+                        sendNanos += metrics.sendNanos;
+                    }
+                    log.debug("Report collected in {}us and sent in {}us", collectNanos / 1000, sendNanos / 1000);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingCommit = null;
+            log.debug("Reporter stopped, report at {} not sent", timestamp);
+        }
+    }
+
+    /**
+     * Wait until previous scheduled report is sent and commit its values. Called with {@link #scheduledReportLock} held,
+     * so sender thread is the only other user of {@link #graphite} and only until this returns.
+     *
+     * @return false if interrupted
+     */
+    private boolean awaitPendingSend() {
+        if (pendingSend == null) {
+            return true;
+        }
+        try {
+            pendingSend.get();
+            pendingCommit.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while waiting for send of scheduled report");
+            return false;
+        } catch (ExecutionException e) {
+            log.warn("Send failed", e.getCause());
+        }
+        pendingSend = null;
+        pendingCommit = null;
+        return true;
+    }
+
+    /**
+     * Report multiple registries in one pass.
+     * All registries are read first and reported with the same timestamp over one connection with one flush.
+     * Waits for running scheduled report, see {@link #start(long, TimeUnit)}.
      *
      * @param registries Map of registries
+     * @return result of each registry in order of given map
      */
-    public void reportRegistries(Map<MetricRegistry.Type, MetricRegistry> registries) {
-        registries.forEach(this::reportRegistry);
+    public Map<MetricRegistry.Type, ReportResult> reportRegistries(Map<MetricRegistry.Type, MetricRegistry> registries) {
+        return reportRegistries(registries, System.currentTimeMillis() / 1000);
     }
 
     /**
-     * Report one registry
+     * Report multiple registries in one pass with given timestamp.
+     *
+     * @param registries Map of registries
+     * @param timestamp timestamp of all data points in seconds
+     * @return result of each registry in order of given map
+     */
+    protected Map<MetricRegistry.Type, ReportResult> reportRegistries(Map<MetricRegistry.Type, MetricRegistry> registries, long timestamp) {
+        log.debug("Report {} Registries", registries.size());
+
+        scheduledReportLock.lock();
+        try {
+            if (!awaitPendingSend()) {
+                return Collections.emptyMap();
+            }
+            final List<RegistryMetrics> collected = collect(registries, batch, timestamp);
+            send(collected, batch, timestamp);
+            commit(collected, batch, timestamp);
+            return results(collected);
+        } finally {
+            scheduledReportLock.unlock();
+        }
+    }
+
+    /**
+     * Report one registry. Waits for running scheduled report, see {@link #start(long, TimeUnit)}.
      *
      * @param scope registry type
      * @param registry registry
      */
     public void reportRegistry(MetricRegistry.Type scope, MetricRegistry registry) {
-        reportMetrics(scope.getName(),
-                registry.getGauges(filter),
-                registry.getCounters(filter),
-                registry.getHistograms(filter),
-                registry.getMeters(filter),
-                registry.getTimers(filter));
+        log.debug("Report '{}' Registry", scope.getName());
+
+        final long timestamp = System.currentTimeMillis() / 1000;
+
+        scheduledReportLock.lock();
+        try {
+            if (!awaitPendingSend()) {
+                return;
+            }
+            batch.clear();
+            final List<RegistryMetrics> collected = Collections.singletonList(collectRegistry(scope, registry, batch, timestamp));
+            send(collected, batch, timestamp);
+            commit(collected, batch, timestamp);
+        } finally {
+            scheduledReportLock.unlock();
+        }
     }
 
     protected void reportMetrics(String scope, SortedMap<String, Gauge> gauges,
@@ -107,110 +496,680 @@ public class GraphiteReporter {
 
         final long timestamp = System.currentTimeMillis() / 1000;
 
+        final Map<String, Metric> all = new LinkedHashMap<>();
+        all.putAll(gauges);
+        all.putAll(counters);
+        all.putAll(histograms);
+        all.putAll(meters);
+        all.putAll(timers);
+
+        scheduledReportLock.lock();
         try {
-            graphite.connect();
+            if (!awaitPendingSend()) {
+                return;
+            }
+            final long start = System.nanoTime();
+            final RegistryMetrics metrics = new RegistryMetrics(null, scope);
+            batch.clear();
+            collectScope(metrics, names.beginCycle(scope), batch, all.entrySet(), Collections::emptyMap, timestamp);
+            metrics.collectNanos = System.nanoTime() - start;
+            final List<RegistryMetrics> collected = Collections.singletonList(metrics);
+            send(collected, batch, timestamp);
+            commit(collected, batch, timestamp);
+        } finally {
+            scheduledReportLock.unlock();
+        }
+    }
+
+    /**
+     * Collect phase. Read values of all registries into given batch. Nothing is sent.
+     */
+    private List<RegistryMetrics> collect(Map<MetricRegistry.Type, MetricRegistry> registries, DataPointBatch batch, long timestamp) {
+        batch.clear();
+        if (disabledAttributesOverridden) {
+            resolveAttributes(getDisabledMetricAttributes());
+        }
+        final List<RegistryMetrics> collected = new ArrayList<>(registries.size());
+        for (Map.Entry<MetricRegistry.Type, MetricRegistry> entry : registries.entrySet()) {
+            collected.add(collectRegistry(entry.getKey(), entry.getValue(), batch, timestamp));
+        }
+        return collected;
+    }
+
+    /**
+     * Read all metrics of the registry in one pass over {@link #getMetrics(MetricRegistry.Type, MetricRegistry)}.
+     */
+    private RegistryMetrics collectRegistry(MetricRegistry.Type scope, MetricRegistry registry, DataPointBatch batch, long timestamp) {
+        final long start = System.nanoTime();
+        final RegistryMetrics metrics = new RegistryMetrics(scope, scope.getName());
+        collectScope(metrics, names.beginCycle(metrics.name), batch, getMetrics(scope, registry),
+                () -> getMetadata(scope, registry), timestamp);
+        metrics.collectNanos = System.nanoTime() - start;
+        return metrics;
+    }
+
+    /**
+     * Metrics of the registry to report. Data points are sent in order of returned entries,
+     * default implementation returns {@link MetricRegistry#getMetrics()} which is not sorted.
+     * Override to supply metrics from any {@link Map} or {@link Iterable}, e.g. sorted by name.
+     * Returned metrics are filtered by {@link Builder#filter(MetricFilter)}.
+     *
+     * @param scope registry type
+     * @param registry registry
+     * @return metrics by name
+     */
+    protected Iterable<? extends Map.Entry<String, ? extends Metric>> getMetrics(MetricRegistry.Type scope, MetricRegistry registry) {
+        return registry.getMetrics().entrySet();
+    }
 
-            for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
-                reportGauge(scope + "." + entry.getKey(), entry.getValue(), timestamp);
+    /**
+     * Metadata of the registry, used for tags of tagged series, see {@link Builder#taggedSeries()}.
+     * Called at most once per report and only when there is a new metric.
+     *
+     * @param scope registry type
+     * @param registry registry
+     * @return metadata by metric name
+     */
+    protected Map<String, Metadata> getMetadata(MetricRegistry.Type scope, MetricRegistry registry) {
+        return registry.getMetadata();
+    }
+
+    /**
+     * Collect metrics in one pass. Filter decision is cached for each metric until the metric is removed or registered again.
+     * Histograms and timers with snapshot attributes are collected at the end so their snapshots can be computed in parallel,
+     * snapshot of other histograms and timers is not computed at all.
+     */
+    private void collectScope(RegistryMetrics metrics, MetricNameCache.Scope cache, DataPointBatch batch,
+            Iterable<? extends Map.Entry<String, ? extends Metric>> entries, Supplier<Map<String, Metadata>> metadataSupplier,
+            long timestamp) {
+        metrics.from = batch.size();
+        skippedAttributes = 0;
+        Map<String, Metadata> metadata = null;
+        int count = 0;
+        final List<MetricNameCache.Entry> samplingNames = new ArrayList<>();
+        final List<Sampling> samplings = new ArrayList<>();
+
+        for (Map.Entry<String, ? extends Metric> entry : entries) {
+            final String metricName = entry.getKey();
+            final Metric metric = entry.getValue();
+            final MetricNameCache.Entry name = cache.entry(metricName);
+            if (filter != MetricFilter.ALL && !name.accepts(filter, metricName, metric)) {
+                continue;
+            }
+            if (taggedSeries && name.needsTags(metric)) {
+                if (metadata == null) {
+                    metadata = metadataSupplier.get();
+                }
+                final Metadata md = metadata.get(metricName);
+                name.tags(metric, md == null ? "" : renderTags(md.getTags()));
             }
+            if (metric instanceof Gauge) {
+                collectGauge(batch, name, (Gauge<?>) metric, timestamp);
+            } else if (metric instanceof Counter) {
+                collectCounter(batch, name, (Counter) metric, timestamp);
+            } else if (metric instanceof Meter) {
+                final int attributes = attributes(name, meterAttributes, AttributeMask.METERED);
+                skippedAttributes += Integer.bitCount(AttributeMask.METERED & ~attributes);
+                collectMetered(batch, batch.name(name), (Meter) metric, attributes);
+            } else if (metric instanceof Timer) {
+                if (hasSnapshotAttributes(name, timerAttributes, AttributeMask.TIMER)) {
+                    samplingNames.add(name);
+                    samplings.add((Sampling) metric);
+                } else {
+                    collectTimer(batch, name, (Timer) metric, null);
+                }
+            } else if (metric instanceof Histogram) {
+                if (hasSnapshotAttributes(name, histogramAttributes, AttributeMask.HISTOGRAM)) {
+                    samplingNames.add(name);
+                    samplings.add((Sampling) metric);
+                } else {
+                    collectHistogram(batch, name, (Histogram) metric, null);
+                }
+            } else {
+                continue;
+            }
+            count++;
+        }
 
-            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
-                reportCounter(scope + "." + entry.getKey(), entry.getValue(), timestamp);
+        // null if snapshots are computed one by one below
+        final Snapshot[] snapshots = computeSnapshots(samplings);
+        for (int i = 0; i < samplings.size(); i++) {
+            final Sampling sampling = samplings.get(i);
+            final Snapshot snapshot = snapshots != null ? snapshots[i] : null;
+            if (sampling instanceof Timer) {
+                collectTimer(batch, samplingNames.get(i), (Timer) sampling, snapshot);
+            } else {
+                collectHistogram(batch, samplingNames.get(i), (Histogram) sampling, snapshot);
             }
+        }
 
-            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
-                reportHistogram(scope + "." + entry.getKey(), entry.getValue(), timestamp);
+        // Only a complete pass knows which metrics disappeared from the registry
+        cache.evictStale();
+
+        metrics.to = batch.size();
+        metrics.metrics = count;
+        metrics.skippedAttributes = skippedAttributes;
+    }
+
+    /**
+     * Send phase. Send collected data points over one connection with one flush.
+     * Failed registry does not stop sending of remaining registries.
+     */
+    private void send(List<RegistryMetrics> collected, DataPointBatch batch, long timestamp) {
+        boolean connected = false;
+        long start = System.nanoTime();
+        try {
+            for (RegistryMetrics metrics : collected) {
+                log.debug("Send '{}' Registry", metrics.name);
+                points = 0;
+                bytes = 0;
+                final long bytesSent = selfMetrics != null ? MeteredGraphiteSender.bytesSent(graphite) : -1;
+                try {
+                    if (!connected) {
+                        connect();
+                        connected = true;
+                    }
+                    for (int i = metrics.from; i < metrics.to; i++) {
+                        send(batch, i, timestamp);
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to report '{}' Registry to Graphite", metrics.name, e);
+                    metrics.failure = e;
+                    if (connected) {
+                        // start over with new connection for remaining registries
+                        closeQuietly();
+                        connected = false;
+                    }
+                }
+                metrics.points = points;
+                metrics.bytes = bytesSent < 0 ? bytes : MeteredGraphiteSender.bytesSent(graphite) - bytesSent;
+                final long now = System.nanoTime();
+                metrics.sendNanos = now - start;
+                start = now;
+            }
+        } finally {
+            final long bytesSent = selfMetrics != null ? MeteredGraphiteSender.bytesSent(graphite) : -1;
+            IOException flushFailure = flushAndClose();
+            if (!collected.isEmpty()) {
+                // flush belongs to the last registry
+                final RegistryMetrics last = collected.get(collected.size() - 1);
+                last.sendNanos += System.nanoTime() - start;
+                if (bytesSent >= 0) {
+                    last.bytes += MeteredGraphiteSender.bytesSent(graphite) - bytesSent;
+                }
+            }
+            if (flushFailure != null) {
+                for (RegistryMetrics metrics : collected) {
+                    if (metrics.failure == null) {
+                        metrics.failure = flushFailure;
+                    }
+                }
+            }
+        }
+        logFailures();
+        if (selfMetrics != null) {
+            for (RegistryMetrics metrics : collected) {
+                selfMetrics.scope(metrics.name).reported(metrics.metrics, metrics.collectNanos, metrics.sendNanos,
+                        metrics.points, metrics.bytes, metrics.skippedAttributes, metrics.failure != null);
             }
+        }
+    }
 
-            for (Map.Entry<String, Meter> entry : meters.entrySet()) {
-                reportMetered(scope + "." + entry.getKey(), entry.getValue(), timestamp);
+    /**
+     * Remember values of counters and gauges of registries which were sent successfully.
+     * Values of failed registries are sent again in next report.
+     */
+    private void commit(List<RegistryMetrics> collected, DataPointBatch batch, long timestamp) {
+        if (heartbeat < 0) {
+            return;
+        }
+        for (RegistryMetrics metrics : collected) {
+            if (metrics.failure == null) {
+                batch.commit(metrics.from, metrics.to, timestamp);
             }
+        }
+    }
+
+    private static Map<MetricRegistry.Type, ReportResult> results(List<RegistryMetrics> collected) {
+        final Map<MetricRegistry.Type, ReportResult> results = new LinkedHashMap<>();
+        for (RegistryMetrics metrics : collected) {
+            results.put(metrics.scope, new ReportResult(metrics.scope, metrics.metrics, metrics.points, metrics.failure,
+                    metrics.collectNanos, metrics.sendNanos));
+        }
+        return results;
+    }
 
-            for (Map.Entry<String, Timer> entry : timers.entrySet()) {
-                reportTimer(scope + "." + entry.getKey(), entry.getValue(), timestamp);
+    /**
+     * Render tags as suffix of Graphite 1.1 tagged series, e.g. {@code ;host=a;zone=b}.
+     * Tags are sorted by name, characters not allowed by Graphite are replaced by underscore.
+     */
+    private static String renderTags(Map<String, String> tags) {
+        if (tags.isEmpty()) {
+            return "";
+        }
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> tag : new TreeMap<>(tags).entrySet()) {
+            if (tag.getKey().isEmpty() || tag.getValue() == null || tag.getValue().isEmpty()) {
+                continue;
             }
-        } catch (IOException e) {
-            log.warn("Unable to report to Graphite", e);
-        } finally {
-            try {
-                graphite.flush();
-                graphite.close();
-            } catch (IOException e1) {
-                log.warn("Error flushing/closing Graphite", e1);
+            sb.append(';').append(TAG_NAME_INVALID.matcher(tag.getKey()).replaceAll("_"))
+                    .append('=').append(TAG_VALUE_INVALID.matcher(tag.getValue()).replaceAll("_"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compute snapshots of histograms and timers in parallel.
+     *
+     * @return snapshots in order of given list or null if parallel computation is disabled or there is not enough metrics
+     */
+    private Snapshot[] computeSnapshots(List<Sampling> list) {
+        final int count = list.size();
+        if (snapshotParallelism == 0 || count < minSnapshotBatch) {
+            return null;
+        }
+        final Executor executor = snapshotExecutor();
+        final Sampling[] samplings = list.toArray(new Sampling[count]);
+
+        final Snapshot[] snapshots = new Snapshot[count];
+        final int batch = Math.max(minSnapshotBatch, (count + snapshotParallelism - 1) / snapshotParallelism);
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[(count - 1) / batch];
+        for (int task = 0; task < futures.length; task++) {
+            final int from = (task + 1) * batch;
+            final int to = Math.min(from + batch, count);
+            futures[task] = CompletableFuture.runAsync(() -> computeSnapshots(samplings, snapshots, from, to), executor);
+        }
+        // first batch on reporting thread
+        computeSnapshots(samplings, snapshots, 0, Math.min(batch, count));
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw e;
+        }
+        return snapshots;
+    }
+
+    private Executor snapshotExecutor() {
+        if (snapshotExecutor != null) {
+            return snapshotExecutor;
         }
+        if (ownSnapshotPool == null) {
+            ownSnapshotPool = new ForkJoinPool(snapshotParallelism);
+        }
+        return ownSnapshotPool;
+    }
+
+    private static void computeSnapshots(Sampling[] samplings, Snapshot[] snapshots, int from, int to) {
+        for (int i = from; i < to; i++) {
+            snapshots[i] = samplings[i].getSnapshot();
+        }
+    }
+
+    /**
+     * Connect and record connect latency if a connection was opened. Latency of senders which do not count connections,
+     * see {@link MeteredGraphiteSender}, is recorded for every connect.
+     */
+    private void connect() throws IOException {
+        if (selfMetrics == null) {
+            graphite.connect();
+            return;
+        }
+        final long connects = MeteredGraphiteSender.connects(graphite);
+        final long start = System.nanoTime();
+        graphite.connect();
+        if (connects < 0 || MeteredGraphiteSender.connects(graphite) > connects) {
+            selfMetrics.connected(System.nanoTime() - start);
+        }
+    }
+
+    private IOException flushAndClose() {
+        try {
+            graphite.flush();
+            graphite.close();
+        } catch (IOException e1) {
+            log.warn("Error flushing/closing Graphite", e1);
+            // failed flush leaves the connection open, next connect would fail
+            closeQuietly();
+            return e1;
+        }
+        return null;
+    }
+
+    private void closeQuietly() {
+        try {
+            graphite.close();
+        } catch (IOException e) {
+            log.debug("Error closing Graphite", e);
+        }
+    }
+
+    private void logFailures() {
         log.debug("Report done. Failures: '{}'", graphite.getFailures());
         if (graphite.getFailures() > 0) {
             log.warn("Some data failed to send to Graphite. Failures: {}", graphite.getFailures());
         }
     }
 
-    private void reportTimer(String name, Timer timer, long timestamp) throws IOException {
-        log.trace("report time: {}", name);
-        final Snapshot snapshot = timer.getSnapshot();
-        sendIfEnabled(MAX, name, convertDuration(snapshot.getMax()), timestamp);
-        sendIfEnabled(MEAN, name, convertDuration(snapshot.getMean()), timestamp);
-        sendIfEnabled(MIN, name, convertDuration(snapshot.getMin()), timestamp);
-        sendIfEnabled(STDDEV, name, convertDuration(snapshot.getStdDev()), timestamp);
-        sendIfEnabled(P50, name, convertDuration(snapshot.getMedian()), timestamp);
-        sendIfEnabled(P75, name, convertDuration(snapshot.get75thPercentile()), timestamp);
-        sendIfEnabled(P95, name, convertDuration(snapshot.get95thPercentile()), timestamp);
-        sendIfEnabled(P98, name, convertDuration(snapshot.get98thPercentile()), timestamp);
-        sendIfEnabled(P99, name, convertDuration(snapshot.get99thPercentile()), timestamp);
-        sendIfEnabled(P999, name, convertDuration(snapshot.get999thPercentile()), timestamp);
-        reportMetered(name, timer, timestamp);
+    /**
+     * @param snapshot snapshot of the timer or null to get it only if a snapshot attribute is enabled
+     */
+    private void collectTimer(DataPointBatch batch, MetricNameCache.Entry name, Timer timer, Snapshot snapshot) {
+        log.trace("collect timer: {}", name.getName());
+        final int id = batch.name(name);
+        final int attributes = attributes(name, timerAttributes, AttributeMask.TIMER);
+        skippedAttributes += Integer.bitCount(AttributeMask.TIMER & ~attributes);
+        if (snapshot == null && (attributes & AttributeMask.SNAPSHOT) != 0) {
+            snapshot = timer.getSnapshot();
+        }
+        if (snapshot != null) {
+            collectSnapshot(batch, id, snapshot, attributes, true);
+        }
+        collectMetered(batch, id, timer, attributes);
     }
 
-    private void reportMetered(String name, Metered meter, long timestamp) throws IOException {
-        log.trace("report metered: {}", name);
-        sendIfEnabled(COUNT, name, meter.getCount(), timestamp);
-        sendIfEnabled(M1_RATE, name, convertRate(meter.getOneMinuteRate()), timestamp);
-        sendIfEnabled(M5_RATE, name, convertRate(meter.getFiveMinuteRate()), timestamp);
-        sendIfEnabled(M15_RATE, name, convertRate(meter.getFifteenMinuteRate()), timestamp);
-        sendIfEnabled(MEAN_RATE, name, convertRate(meter.getMeanRate()), timestamp);
+    private void collectMetered(DataPointBatch batch, int id, Metered meter, int attributes) {
+        if ((attributes & AttributeMask.COUNT) != 0) {
+            batch.add(id, COUNT, meter.getCount());
+        }
+        for (int mask = attributes & AttributeMask.RATES; mask != 0; mask &= mask - 1) {
+            final MetricAttribute attribute = AttributeMask.attribute(mask);
+            batch.add(id, attribute, convertRate(rate(meter, attribute)));
+        }
     }
 
-    private void reportHistogram(String name, Histogram histogram, long timestamp) throws IOException {
-        log.trace("report histogram: {}", name);
-        final Snapshot snapshot = histogram.getSnapshot();
-        sendIfEnabled(COUNT, name, histogram.getCount(), timestamp);
-        sendIfEnabled(MAX, name, snapshot.getMax(), timestamp);
-        sendIfEnabled(MEAN, name, snapshot.getMean(), timestamp);
-        sendIfEnabled(MIN, name, snapshot.getMin(), timestamp);
-        sendIfEnabled(STDDEV, name, snapshot.getStdDev(), timestamp);
-        sendIfEnabled(P50, name, snapshot.getMedian(), timestamp);
-        sendIfEnabled(P75, name, snapshot.get75thPercentile(), timestamp);
-        sendIfEnabled(P95, name, snapshot.get95thPercentile(), timestamp);
-        sendIfEnabled(P98, name, snapshot.get98thPercentile(), timestamp);
-        sendIfEnabled(P99, name, snapshot.get99thPercentile(), timestamp);
-        sendIfEnabled(P999, name, snapshot.get999thPercentile(), timestamp);
+    /**
+     * @param snapshot snapshot of the histogram or null to get it only if a snapshot attribute is enabled
+     */
+    private void collectHistogram(DataPointBatch batch, MetricNameCache.Entry name, Histogram histogram, Snapshot snapshot) {
+        log.trace("collect histogram: {}", name.getName());
+        final int id = batch.name(name);
+        final int attributes = attributes(name, histogramAttributes, AttributeMask.HISTOGRAM);
+        skippedAttributes += Integer.bitCount(AttributeMask.HISTOGRAM & ~attributes);
+        if (snapshot == null && (attributes & AttributeMask.SNAPSHOT) != 0) {
+            snapshot = histogram.getSnapshot();
+        }
+        if ((attributes & AttributeMask.COUNT) != 0) {
+            batch.add(id, COUNT, histogram.getCount());
+        }
+        if (snapshot != null) {
+            collectSnapshot(batch, id, snapshot, attributes, false);
+        }
     }
 
-    private void reportCounter(String name, Counter counter, long timestamp) throws IOException {
-        log.trace("report counter: {}", name);
-        graphite.send(prefix(name, COUNT.getCode()), format(counter.getCount()), timestamp);
+    /**
+     * Collect enabled snapshot attributes. Configured quantiles replace fixed percentiles
+     * and they are collected if any percentile is enabled.
+     *
+     * @param duration true if values are durations of timer, otherwise values of histogram
+     */
+    private void collectSnapshot(DataPointBatch batch, int id, Snapshot snapshot, int attributes, boolean duration) {
+        final boolean withQuantiles = quantiles != null && (attributes & AttributeMask.PERCENTILES) != 0;
+        int snapshotAttributes = attributes & AttributeMask.SNAPSHOT;
+        if (quantiles != null) {
+            snapshotAttributes &= ~AttributeMask.PERCENTILES;
+        }
+        if (statistics != null) {
+            statistics.compute(snapshot, snapshotAttributes, withQuantiles ? quantiles : null);
+        }
+        for (int mask = snapshotAttributes; mask != 0; mask &= mask - 1) {
+            final MetricAttribute attribute = AttributeMask.attribute(mask);
+            // max and min of histograms are sent as integers
+            if (!duration && attribute == MetricAttribute.MAX) {
+                batch.add(id, attribute, statistics != null ? statistics.getMax() : snapshot.getMax());
+            } else if (!duration && attribute == MetricAttribute.MIN) {
+                batch.add(id, attribute, statistics != null ? statistics.getMin() : snapshot.getMin());
+            } else {
+                final double value = statistics != null ? statistics.get(attribute) : value(snapshot, attribute);
+                batch.add(id, attribute, duration ? convertDuration(value) : value);
+            }
+        }
+        if (withQuantiles) {
+            for (int i = 0; i < quantiles.length; i++) {
+                final double value = statistics != null ? statistics.getQuantile(i) : snapshot.getValue(quantiles[i]);
+                batch.addQuantile(id, i, duration ? convertDuration(value) : value);
+            }
+        }
     }
 
-    private void reportGauge(String name, Gauge<?> gauge, long timestamp) throws IOException {
-        log.trace("report gauge: {}", name);
-        final String value = format(gauge.getValue());
-        if (value != null) {
-            graphite.send(prefix(name), value, timestamp);
+    /**
+     * @param name metric name
+     * @param defaults enabled attributes of metric type
+     * @param type all attributes of metric type
+     * @return attributes of matching rule or defaults
+     */
+    private int attributes(MetricNameCache.Entry name, int defaults, int type) {
+        if (attributeRules == null) {
+            return defaults;
         }
+        final int attributes = name.attributes(attributeRules);
+        return attributes == AttributeRules.NO_MATCH ? defaults : attributes & type;
     }
 
-    private void sendIfEnabled(MetricAttribute type, String name, double value, long timestamp) throws IOException {
-        if (getDisabledMetricAttributes().contains(type)) {
-            return;
+    private boolean hasSnapshotAttributes(MetricNameCache.Entry name, int defaults, int type) {
+        return (attributes(name, defaults, type) & AttributeMask.SNAPSHOT) != 0;
+    }
+
+    private static double value(Snapshot snapshot, MetricAttribute attribute) {
+        switch (attribute) {
+            case MAX:
+                return snapshot.getMax();
+            case MEAN:
+                return snapshot.getMean();
+            case MIN:
+                return snapshot.getMin();
+            case STDDEV:
+                return snapshot.getStdDev();
+            case P50:
+                return snapshot.getMedian();
+            case P75:
+                return snapshot.get75thPercentile();
+            case P95:
+                return snapshot.get95thPercentile();
+            case P98:
+                return snapshot.get98thPercentile();
+            case P99:
+                return snapshot.get99thPercentile();
+            case P999:
+                return snapshot.get999thPercentile();
+            default:
+                throw new IllegalArgumentException(attribute + " is not snapshot attribute");
+        }
+    }
+
+    private static double rate(Metered meter, MetricAttribute attribute) {
+        switch (attribute) {
+            case M1_RATE:
+                return meter.getOneMinuteRate();
+            case M5_RATE:
+                return meter.getFiveMinuteRate();
+            case M15_RATE:
+                return meter.getFifteenMinuteRate();
+            case MEAN_RATE:
+                return meter.getMeanRate();
+            default:
+                throw new IllegalArgumentException(attribute + " is not rate attribute");
+        }
+    }
+
+    private void collectCounter(DataPointBatch batch, MetricNameCache.Entry name, Counter counter, long timestamp) {
+        log.trace("collect counter: {}", name.getName());
+        final long count = counter.getCount();
+        if (heartbeat < 0) {
+            batch.add(batch.name(name), COUNT, count);
+        } else if (!name.isUnchanged(count, timestamp, heartbeat)) {
+            batch.addTracked(batch.name(name), COUNT, count, false);
         }
-        graphite.send(prefix(name, type.getCode()), format(value), timestamp);
     }
 
-    private void sendIfEnabled(MetricAttribute type, String name, long value, long timestamp) throws IOException {
-        if (getDisabledMetricAttributes().contains(type)) {
+    private void collectGauge(DataPointBatch batch, MetricNameCache.Entry name, Gauge<?> gauge, long timestamp) {
+        log.trace("collect gauge: {}", name.getName());
+        final Object o = gauge.getValue();
+        final long bits;
+        final boolean isDouble;
+        if (o instanceof Float || o instanceof Double || o instanceof BigInteger || o instanceof BigDecimal) {
+            bits = Double.doubleToLongBits(((Number) o).doubleValue());
+            isDouble = true;
+        } else if (o instanceof Byte || o instanceof Short || o instanceof Integer || o instanceof Long) {
+            bits = ((Number) o).longValue();
+            isDouble = false;
+        } else if (o instanceof Boolean) {
+            bits = ((Boolean) o) ? 1 : 0;
+            isDouble = false;
+        } else {
             return;
         }
-        graphite.send(prefix(name, type.getCode()), format(value), timestamp);
+        if (heartbeat < 0) {
+            batch.add(batch.name(name), null, bits, isDouble);
+        } else if (!name.isUnchanged(bits, timestamp, heartbeat)) {
+            batch.addTracked(batch.name(name), null, bits, isDouble);
+        }
+    }
+
+    private void send(DataPointBatch batch, int i, long timestamp) throws IOException {
+        final byte[] timestampToken = timestampToken(timestamp);
+        if (asciiGraphite != null) {
+            final byte[] path = batch.asciiPath(i);
+            if (path != null) {
+                final int valueLength = batch.isDouble(i) ? formatAscii(batch.getDouble(i)) : formatAscii(batch.getLong(i));
+                asciiGraphite.send(path, valueBuffer, valueLength, timestampToken);
+                points++;
+                bytes += path.length + 1 + valueLength + timestampToken.length;
+                return;
+            }
+        }
+        final String value = batch.isDouble(i) ? format(batch.getDouble(i)) : format(batch.getLong(i));
+        final String path = batch.path(i);
+        graphite.send(path, value, timestamp);
+        points++;
+        // length of plaintext line, path is mostly ASCII
+        bytes += path.length() + 1 + value.length() + timestampToken.length;
+    }
+
+    /**
+     * @return end of plaintext line with given timestamp, rendered once per timestamp
+     */
+    private byte[] timestampToken(long timestamp) {
+        if (timestampToken == null || tokenTimestamp != timestamp) {
+            timestampToken = (" " + timestamp + "\n").getBytes(StandardCharsets.US_ASCII);
+            tokenTimestamp = timestamp;
+        }
+        return timestampToken;
+    }
+
+    /**
+     * Write value as {@link #format(double)} does to {@link #valueBuffer}.
+     *
+     * @return number of bytes
+     */
+    private int formatAscii(double v) {
+        final int length = FixedPointFormat.format(v, formatBuffer, 0);
+        if (length < 0) {
+            return copyAscii(String.format(Locale.US, "%2.2f", v));
+        }
+        for (int i = 0; i < length; i++) {
+            valueBuffer[i] = (byte) formatBuffer[i];
+        }
+        return length;
+    }
+
+    /**
+     * Write value as {@link #format(long)} does to {@link #valueBuffer}.
+     *
+     * @return number of bytes
+     */
+    private int formatAscii(long v) {
+        if (v == Long.MIN_VALUE) {
+            return copyAscii(Long.toString(v));
+        }
+        int pos = 0;
+        if (v < 0) {
+            valueBuffer[pos++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long n = v; n >= 10; n /= 10) {
+            digits++;
+        }
+        int end = pos + digits;
+        do {
+            valueBuffer[--end] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        return pos + digits;
+    }
+
+    private int copyAscii(String s) {
+        if (valueBuffer.length < s.length()) {
+            valueBuffer = new byte[s.length()];
+        }
+        for (int i = 0; i < s.length(); i++) {
+            valueBuffer[i] = (byte) s.charAt(i);
+        }
+        return s.length();
+    }
+
+    /**
+     * Resolve enabled attributes of each metric type.
+     *
+     * @param disabled attributes disabled for all metrics, null for none
+     */
+    private void resolveAttributes(Set<MetricAttribute> disabled) {
+        final int disabledMask = disabled == null ? 0 : AttributeMask.of(disabled);
+        this.histogramAttributes = enabledAttributes(MetricType.HISTOGRAM, disabledMask);
+        this.meterAttributes = enabledAttributes(MetricType.METERED, disabledMask);
+        this.timerAttributes = enabledAttributes(MetricType.TIMER, disabledMask);
+    }
+
+    private int enabledAttributes(MetricType type, int disabled) {
+        if (disabledTypeAttributes.containsKey(type)) {
+            disabled |= AttributeMask.of(disabledTypeAttributes.get(type));
+        }
+        return AttributeMask.of(type) & ~disabled;
+    }
+
+    /**
+     * @return true if subclass declares given method, e.g. own {@link #format(double)} which is not used for ASCII bytes
+     */
+    private boolean isOverridden(String method, Class<?>... parameterTypes) {
+        for (Class<?> c = getClass(); c != GraphiteReporter.class; c = c.getSuperclass()) {
+            try {
+                c.getDeclaredMethod(method, parameterTypes);
+                return true;
+            } catch (NoSuchMethodException e) {
+                // not declared by this class
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Close connection to Graphite and spool and stop threads of parallel snapshots.
+     * Needed only if connection is kept open across reports, see {@link Builder#persistentConnection(long, TimeUnit)}
+     * and {@link DisconnectableGraphiteSender}, if spool is used, see {@link Builder#spoolTo(File)},
+     * or if snapshots are computed by own pool, see {@link Builder#parallelSnapshots(int, int)}.
+     * <p>
+     * Reporter can be used again after close, next report connects again and starts new snapshot threads.
+     * Waits for running scheduled report, see {@link #start(long, TimeUnit)}.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        scheduledReportLock.lock();
+        try {
+            // do not close connection used by send of scheduled report
+            awaitPendingSend();
+            if (ownSnapshotPool != null) {
+                ownSnapshotPool.shutdown();
+                ownSnapshotPool = null;
+            }
+            DisconnectableGraphiteSender.disconnect(graphite);
+        } finally {
+            scheduledReportLock.unlock();
+        }
     }
 
     protected double convertDuration(double duration) {
@@ -221,29 +1180,6 @@ public class GraphiteReporter {
         return rate * rateFactor;
     }
 
-    private String format(Object o) {
-        if (o instanceof Float) {
-            return format(((Float) o).doubleValue());
-        } else if (o instanceof Double) {
-            return format(((Double) o).doubleValue());
-        } else if (o instanceof Byte) {
-            return format(((Byte) o).longValue());
-        } else if (o instanceof Short) {
-            return format(((Short) o).longValue());
-        } else if (o instanceof Integer) {
-            return format(((Integer) o).longValue());
-        } else if (o instanceof Long) {
-            return format(((Long) o).longValue());
-        } else if (o instanceof BigInteger) {
-            return format(((BigInteger) o).doubleValue());
-        } else if (o instanceof BigDecimal) {
-            return format(((BigDecimal) o).doubleValue());
-        } else if (o instanceof Boolean) {
-            return format(((Boolean) o) ? 1 : 0);
-        }
-        return null;
-    }
-
     private String format(long n) {
         return Long.toString(n);
     }
@@ -251,13 +1187,19 @@ public class GraphiteReporter {
     protected String format(double v) {
         // the Carbon plaintext format is pretty underspecified, but it seems like it just wants
         // US-formatted digits
-        return String.format(Locale.US, "%2.2f", v);
-    }
-
-    private String prefix(String... components) {
-        return MetricRegistry.name(prefix, components);
+        final int length = FixedPointFormat.format(v, formatBuffer, 0);
+        if (length < 0) {
+            return String.format(Locale.US, "%2.2f", v);
+        }
+        return new String(formatBuffer, 0, length);
     }
 
+    /**
+     * Attributes disabled for all metrics. Subclass may override it, it is then called once per report
+     * and attributes disabled per metric type are added to the returned set.
+     *
+     * @return disabled attributes, null for none
+     */
     protected Set<MetricAttribute> getDisabledMetricAttributes() {
         return disabledMetricAttributes;
     }
@@ -267,12 +1209,51 @@ public class GraphiteReporter {
         return s.substring(0, s.length() - 1);
     }
 
+    /**
+     * Data points of one registry in the collected batch and result of sending them.
+     */
+    private static class RegistryMetrics {
+        private final MetricRegistry.Type scope;
+        private final String name;
+
+        private int metrics;
+        private int from;
+        private int to;
+        private long collectNanos;
+
+        private int skippedAttributes;
+
+        private int points;
+        private long bytes;
+        private long sendNanos;
+        private Exception failure;
+
+        private RegistryMetrics(MetricRegistry.Type scope, String name) {
+            this.scope = scope;
+            this.name = name;
+        }
+    }
+
     public static class Builder {
         private String prefix = "";
         private TimeUnit rateUnit = TimeUnit.SECONDS;
         private TimeUnit durationUnit = TimeUnit.MILLISECONDS;
-        private Set<MetricAttribute> disabledMetricAttributes = new HashSet<>();
+        private Set<MetricAttribute> disabledMetricAttributes = EnumSet.noneOf(MetricAttribute.class);
+        private Map<MetricType, Set<MetricAttribute>> disabledTypeAttributes = new EnumMap<>(MetricType.class);
+        private Map<String, Set<MetricAttribute>> attributeRules = new LinkedHashMap<>();
+        private boolean taggedSeries;
         private MetricFilter filter = MetricFilter.ALL;
+        private long idleTimeout = -1;
+        private TimeUnit idleTimeoutUnit;
+        private Map<MetricRegistry.Type, MetricRegistry> registries = new EnumMap<>(MetricRegistry.Type.class);
+        private File spoolDirectory;
+        private long heartbeat = -1;
+        private Executor snapshotExecutor;
+        private int snapshotParallelism;
+        private int minSnapshotBatch;
+        private MetricRegistry selfMetrics;
+        private boolean singlePassStatistics;
+        private double[] quantiles;
 
         /**
          * Prefix all metric names with the given string.
@@ -309,6 +1290,7 @@ public class GraphiteReporter {
 
         /**
          * Only report metrics which match the given filter.
+         * Filter is called once per metric, its decision is kept until the metric is removed or registered again.
          *
          * @param filter a {@link MetricFilter}
          * @return {@code this}
@@ -322,22 +1304,223 @@ public class GraphiteReporter {
          * Don't report the passed metric attributes for all metrics (e.g. "p999", "stddev" or "m15").
          * See {@link MetricAttribute}.
          *
-         * @param disabledMetricAttributes a set of {@link MetricAttribute}
+         * @param disabledMetricAttributes a set of {@link MetricAttribute}, null for none
          * @return {@code this}
          */
         public Builder disabledMetricAttributes(Set<MetricAttribute> disabledMetricAttributes) {
-            this.disabledMetricAttributes = disabledMetricAttributes;
+            this.disabledMetricAttributes = EnumSet.noneOf(MetricAttribute.class);
+            if (disabledMetricAttributes != null) {
+                this.disabledMetricAttributes.addAll(disabledMetricAttributes);
+            }
+            return this;
+        }
+
+        /**
+         * Don't report the passed metric attributes for metrics of given type, e.g. "p999" of histograms only.
+         * Applies in addition to {@link #disabledMetricAttributes(Set)}.
+         *
+         * @param type {@link MetricType#HISTOGRAM}, {@link MetricType#METERED} or {@link MetricType#TIMER}
+         * @param disabledMetricAttributes a set of {@link MetricAttribute}
+         * @return {@code this}
+         */
+        public Builder disabledMetricAttributes(MetricType type, Set<MetricAttribute> disabledMetricAttributes) {
+            // fails for types without attributes
+            AttributeMask.of(type);
+            final Set<MetricAttribute> attributes = EnumSet.noneOf(MetricAttribute.class);
+            attributes.addAll(disabledMetricAttributes);
+            this.disabledTypeAttributes.put(type, attributes);
+            return this;
+        }
+
+        /**
+         * Report only given attributes of histograms, meters and timers whose name matches the pattern.
+         * Pattern is matched against metric name qualified by registry type, e.g. {@code vendor.*} or
+         * {@code application.com.example.*.duration}; {@code *} matches any characters.
+         * If more rules match, the one with longest text before first {@code *} wins, then the one added first.
+         * Matching rule replaces disabled attributes of the metric, see {@link #disabledMetricAttributes(Set)}.
+         * Rules are matched once per metric name.
+         *
+         * @param pattern metric name pattern
+         * @param enabledMetricAttributes reported attributes
+         * @return {@code this}
+         */
+        public Builder metricAttributes(String pattern, Set<MetricAttribute> enabledMetricAttributes) {
+            final Set<MetricAttribute> attributes = EnumSet.noneOf(MetricAttribute.class);
+            attributes.addAll(enabledMetricAttributes);
+            this.attributeRules.put(pattern, attributes);
+            return this;
+        }
+
+        /**
+         * Keep one connection open across registries and reports instead of connecting for each registry.
+         * Connection is reestablished after failure or when it was idle longer than given timeout.
+         * See {@link PersistentGraphiteSender}. Call {@link GraphiteReporter#close()} to close the connection.
+         *
+         * @param idleTimeout time after which idle connection is not reused
+         * @param unit unit of idle timeout
+         * @return {@code this}
+         */
+        public Builder persistentConnection(long idleTimeout, TimeUnit unit) {
+            this.idleTimeout = idleTimeout;
+            this.idleTimeoutUnit = unit;
+            return this;
+        }
+
+        /**
+         * Send counters and gauges only when their value changed since last report.
+         * Unchanged value is sent again when it was last sent given time ago, so Graphite does not see gaps.
+         *
+         * @param heartbeat time after which unchanged value is sent again
+         * @param unit unit of heartbeat
+         * @return {@code this}
+         */
+        public Builder onlyChangedValues(long heartbeat, TimeUnit unit) {
+            this.heartbeat = unit.toSeconds(heartbeat);
+            return this;
+        }
+
+        /**
+         * Compute snapshots of histograms and timers in parallel on own {@link ForkJoinPool} before they are reported.
+         * Data points are still sent in the same order from reporting thread.
+         *
+         * @param parallelism number of threads
+         * @param minBatchSize minimal number of snapshots computed by one task, registries with fewer histograms and timers
+         * are reported without parallel phase
+         * @return {@code this}
+         */
+        public Builder parallelSnapshots(int parallelism, int minBatchSize) {
+            return parallelSnapshots(null, parallelism, minBatchSize);
+        }
+
+        /**
+         * Compute snapshots of histograms and timers in parallel on given executor before they are reported.
+         * Data points are still sent in the same order from reporting thread.
+         *
+         * @param executor executor computing snapshots, not shut down by the reporter
+         * @param parallelism maximal number of tasks per registry
+         * @param minBatchSize minimal number of snapshots computed by one task, registries with fewer histograms and timers
+         * are reported without parallel phase
+         * @return {@code this}
+         */
+        public Builder parallelSnapshots(Executor executor, int parallelism, int minBatchSize) {
+            if (parallelism < 1 || minBatchSize < 1) {
+                throw new IllegalArgumentException("parallelism and minBatchSize must be positive");
+            }
+            this.snapshotExecutor = executor;
+            this.snapshotParallelism = parallelism;
+            this.minSnapshotBatch = minBatchSize;
+            return this;
+        }
+
+        /**
+         * Report given quantiles of histograms and timers instead of fixed percentiles {@code p50} to {@code p999}.
+         * Attribute of quantile is named by its percent without decimal point, e.g. {@code p90} for 0.9
+         * or {@code p9999} for 0.9999. Quantiles are reported for metrics with any percentile attribute enabled,
+         * see {@link #disabledMetricAttributes(Set)} and {@link #metricAttributes(String, Set)}.
+         *
+         * @param quantiles ascending quantiles between 0 and 1
+         * @return {@code this}
+         */
+        public Builder quantiles(double... quantiles) {
+            if (quantiles.length == 0) {
+                throw new IllegalArgumentException("At least one quantile is required");
+            }
+            final Set<String> codes = new HashSet<>();
+            for (int i = 0; i < quantiles.length; i++) {
+                if (!codes.add(MetricNameCache.quantileCode(quantiles[i]))) {
+                    throw new IllegalArgumentException("Quantile " + quantiles[i] + " has the same name as another quantile");
+                }
+                if (!(quantiles[i] >= 0 && quantiles[i] <= 1)) {
+                    throw new IllegalArgumentException(quantiles[i] + " is not in [0..1]");
+                }
+                if (i > 0 && quantiles[i] <= quantiles[i - 1]) {
+                    throw new IllegalArgumentException("Quantiles must be sorted ascending without duplicates");
+                }
+            }
+            this.quantiles = quantiles.clone();
+            return this;
+        }
+
+        /**
+         * Compute snapshot attributes of histograms and timers in one pass over {@link Snapshot#getValues()}
+         * instead of calling {@link Snapshot} method for each attribute. Helps with snapshots which copy or scan values
+         * in each method. Values are sorted only for percentiles and only if they are not sorted yet.
+         * Results are kept in reusable primitive buffer.
+         * <p>
+         * All values have the same weight, so mean, standard deviation and percentiles may differ from
+         * weighted snapshots, e.g. of exponentially decaying reservoir.
+         *
+         * @return {@code this}
+         */
+        public Builder singlePassStatistics() {
+            this.singlePassStatistics = true;
+            return this;
+        }
+
+        /**
+         * Send tags of metric {@link Metadata} as Graphite 1.1 tagged series,
+         * e.g. {@code prefix.application.requests.count;host=a;zone=b}.
+         * Tags are rendered once per metric.
+         *
+         * @return {@code this}
+         */
+        public Builder taggedSeries() {
+            this.taggedSeries = true;
+            return this;
+        }
+
+        /**
+         * Register metrics of the reporter itself in given registry, e.g. to report them to Graphite as well.
+         * Metrics are named {@code graphite.reporter.<registry>.<metric>}: timers {@code collect} and {@code send},
+         * counters {@code points}, {@code bytes} (bytes sent by {@link MeteredGraphiteSender}, length of plaintext lines
+         * for other senders), {@code failures} and {@code skippedAttributes} (disabled attributes of histograms, meters
+         * and timers) and gauge {@code metrics} with number of metrics in last report. Timer
+         * {@code graphite.reporter.connect} measures latency of connects which opened a connection.
+         *
+         * @param registry registry of reporter metrics
+         * @return {@code this}
+         */
+        public Builder selfMetrics(MetricRegistry registry) {
+            this.selfMetrics = registry;
+            return this;
+        }
+
+        /**
+         * Write data points which failed to send to spool in given directory and replay them when Graphite recovers.
+         * See {@link SpoolingGraphiteSender} for limits and tuning.
+         *
+         * @param spoolDirectory spool directory
+         * @return {@code this}
+         */
+        public Builder spoolTo(File spoolDirectory) {
+            this.spoolDirectory = spoolDirectory;
+            return this;
+        }
+
+        /**
+         * Registry reported by {@link GraphiteReporter#start(long, TimeUnit)}.
+         *
+         * @param scope registry type
+         * @param registry registry
+         * @return {@code this}
+         */
+        public Builder registry(MetricRegistry.Type scope, MetricRegistry registry) {
+            this.registries.put(scope, registry);
             return this;
         }
 
         public GraphiteReporter build(GraphiteSender graphite) {
-            return new GraphiteReporter(
-                    graphite,
-                    prefix,
-                    rateUnit,
-                    durationUnit,
-                    disabledMetricAttributes,
-                    filter);
+            if (idleTimeout >= 0 && !(graphite instanceof PersistentGraphiteSender)) {
+                graphite = new PersistentGraphiteSender(graphite, idleTimeout, idleTimeoutUnit);
+            }
+            if (spoolDirectory != null && !(graphite instanceof SpoolingGraphiteSender)) {
+                try {
+                    graphite = new SpoolingGraphiteSender(graphite, spoolDirectory);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Cannot open spool in " + spoolDirectory, e);
+                }
+            }
+            return new GraphiteReporter(graphite, this);
         }
     }
 
@@ -0,0 +1,42 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} counting bytes it sends and connections it opens, see
+ * {@link GraphiteReporter.Builder#selfMetrics(org.eclipse.microprofile.metrics.MetricRegistry)}.
+ * <p>
+ * Counts are totals since the sender was created. Senders wrapping other senders return counts of the wrapped
+ * senders, {@code -1} if a wrapped sender does not count.
+ *
+ * @author Libor Krzyzanek
+ */
+public interface MeteredGraphiteSender extends GraphiteSender {
+
+    /**
+     * @return number of bytes written to the network in protocol of the sender, e.g. pickle frames or datagrams,
+     * {@code -1} if not known
+     */
+    long getBytesSent();
+
+    /**
+     * @return number of connections opened by {@link #connect()}, {@code -1} if not known
+     */
+    long getConnects();
+
+    /**
+     * @param sender sender
+     * @return bytes sent by the sender if it is {@link MeteredGraphiteSender}, otherwise {@code -1}
+     */
+    static long bytesSent(GraphiteSender sender) {
+        return sender instanceof MeteredGraphiteSender ? ((MeteredGraphiteSender) sender).getBytesSent() : -1;
+    }
+
+    /**
+     * @param sender sender
+     * @return connections opened by the sender if it is {@link MeteredGraphiteSender}, otherwise {@code -1}
+     */
+    static long connects(GraphiteSender sender) {
+        return sender instanceof MeteredGraphiteSender ? ((MeteredGraphiteSender) sender).getConnects() : -1;
+    }
+}
@@ -0,0 +1,350 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.eclipse.microprofile.metrics.Metric;
+import org.eclipse.microprofile.metrics.MetricFilter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+/**
+ * Cache of fully-qualified Graphite metric names kept across report cycles.
+ * Names are keyed by (scope, metric name) and each entry holds the final path for every {@link MetricAttribute},
+ * both as {@link String} and as ASCII bytes for {@link AsciiGraphiteSender}.
+ * Entries of metrics which were not reported in the last complete cycle of their scope are evicted.
+ *
+ * @author Libor Krzyzanek
+ */
+class MetricNameCache {
+
+    private static final int ATTRIBUTE_COUNT = MetricAttribute.values().length;
+
+    /**
+     * Cached ASCII path of path which is not ASCII
+     */
+    private static final byte[] NOT_ASCII = new byte[0];
+
+    private final String prefix;
+
+    /**
+     * Attribute codes of configured quantiles, e.g. {@code p9999}
+     */
+    private final String[] quantileCodes;
+
+    private final Map<String, Scope> scopes = new HashMap<>();
+
+    MetricNameCache(String prefix) {
+        this(prefix, new double[0]);
+    }
+
+    /**
+     * @param prefix prefix of all paths
+     * @param quantiles quantiles reported instead of fixed percentiles
+     */
+    MetricNameCache(String prefix, double[] quantiles) {
+        this.prefix = prefix;
+        this.quantileCodes = new String[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            quantileCodes[i] = quantileCode(quantiles[i]);
+        }
+    }
+
+    /**
+     * @param quantile quantile between 0 and 1
+     * @return attribute code of the quantile, e.g. {@code p90} for 0.9 or {@code p9999} for 0.9999
+     */
+    static String quantileCode(double quantile) {
+        return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString().replace(".", "");
+    }
+
+    /**
+     * Start new report cycle of given scope.
+     *
+     * @param scope registry scope
+     * @return scope holding cached names
+     */
+    Scope beginCycle(String scope) {
+        Scope s = scopes.get(scope);
+        if (s == null) {
+            s = new Scope(scope);
+            scopes.put(scope, s);
+        }
+        s.generation++;
+        return s;
+    }
+
+    /**
+     * @param path metric path
+     * @return ASCII bytes of the path with whitespace replaced by {@code -} as plaintext senders do,
+     * {@link #NOT_ASCII} if the path contains other characters
+     */
+    private static byte[] ascii(String path) {
+        final byte[] bytes = new byte[path.length()];
+        int length = 0;
+        boolean whitespace = false;
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c >= 0x80) {
+                return NOT_ASCII;
+            }
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                if (!whitespace) {
+                    bytes[length++] = '-';
+                }
+                whitespace = true;
+                continue;
+            }
+            whitespace = false;
+            bytes[length++] = (byte) c;
+        }
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    class Scope {
+        private final String name;
+
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        private int generation;
+
+        private Scope(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Get cached entry for given metric and mark it as used in current cycle.
+         *
+         * @param metricName metric name within the registry
+         * @return cache entry
+         */
+        Entry entry(String metricName) {
+            Entry entry = entries.get(metricName);
+            if (entry == null) {
+                entry = new Entry(name + "." + metricName);
+                entries.put(metricName, entry);
+            }
+            entry.generation = generation;
+            return entry;
+        }
+
+        /**
+         * Remove entries of metrics which were not reported in current cycle.
+         */
+        void evictStale() {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().generation != generation) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    class Entry {
+        private final String name;
+
+        private String path;
+
+        private final String[] attributePaths = new String[ATTRIBUTE_COUNT];
+
+        private String[] quantilePaths;
+
+        private byte[] asciiPath;
+
+        private final byte[][] asciiAttributePaths = new byte[ATTRIBUTE_COUNT][];
+
+        private byte[][] asciiQuantilePaths;
+
+        private int generation;
+
+        private boolean sent;
+
+        private long lastValue;
+
+        private long lastSent;
+
+        private boolean attributesResolved;
+
+        private int attributes;
+
+        private Metric filtered;
+
+        private Metric tagged;
+
+        /**
+         * Rendered tags of tagged series, e.g. {@code ;host=a;zone=b}
+         */
+        private String tags = "";
+
+        private boolean accepted;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return scope-qualified metric name
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return prefixed metric path without attribute
+         */
+        String path() {
+            if (path == null) {
+                path = MetricRegistry.name(prefix, name) + tags;
+            }
+            return path;
+        }
+
+        /**
+         * @param attribute metric attribute
+         * @return prefixed metric path of given attribute
+         */
+        String path(MetricAttribute attribute) {
+            final int i = attribute.ordinal();
+            String p = attributePaths[i];
+            if (p == null) {
+                p = MetricRegistry.name(prefix, name, attribute.getCode()) + tags;
+                attributePaths[i] = p;
+            }
+            return p;
+        }
+
+        /**
+         * @param quantile index of configured quantile
+         * @return prefixed metric path of given quantile
+         */
+        String quantilePath(int quantile) {
+            if (quantilePaths == null) {
+                quantilePaths = new String[quantileCodes.length];
+            }
+            String p = quantilePaths[quantile];
+            if (p == null) {
+                p = MetricRegistry.name(prefix, name, quantileCodes[quantile]) + tags;
+                quantilePaths[quantile] = p;
+            }
+            return p;
+        }
+
+        /**
+         * @return ASCII bytes of {@link #path()} or null if the path is not ASCII
+         */
+        byte[] asciiPath() {
+            if (asciiPath == null) {
+                asciiPath = ascii(path());
+            }
+            return asciiPath == NOT_ASCII ? null : asciiPath;
+        }
+
+        /**
+         * @param attribute metric attribute
+         * @return ASCII bytes of {@link #path(MetricAttribute)} or null if the path is not ASCII
+         */
+        byte[] asciiPath(MetricAttribute attribute) {
+            final int i = attribute.ordinal();
+            byte[] p = asciiAttributePaths[i];
+            if (p == null) {
+                p = ascii(path(attribute));
+                asciiAttributePaths[i] = p;
+            }
+            return p == NOT_ASCII ? null : p;
+        }
+
+        /**
+         * @param quantile index of configured quantile
+         * @return ASCII bytes of {@link #quantilePath(int)} or null if the path is not ASCII
+         */
+        byte[] asciiQuantilePath(int quantile) {
+            if (asciiQuantilePaths == null) {
+                asciiQuantilePaths = new byte[quantileCodes.length][];
+            }
+            byte[] p = asciiQuantilePaths[quantile];
+            if (p == null) {
+                p = ascii(quantilePath(quantile));
+                asciiQuantilePaths[quantile] = p;
+            }
+            return p == NOT_ASCII ? null : p;
+        }
+
+        /**
+         * @param filter metric filter
+         * @param metricName metric name within the registry
+         * @param metric metric
+         * @return decision of the filter, cached until different metric instance is registered under the name
+         */
+        boolean accepts(MetricFilter filter, String metricName, Metric metric) {
+            if (filtered != metric) {
+                accepted = filter.matches(metricName, metric);
+                filtered = metric;
+            }
+            return accepted;
+        }
+
+        /**
+         * @param metric metric
+         * @return true if tags were not set for given metric instance yet
+         */
+        boolean needsTags(Metric metric) {
+            return tagged != metric;
+        }
+
+        /**
+         * Set tags appended to all paths of the metric.
+         *
+         * @param metric metric instance the tags belong to
+         * @param tags rendered tags, e.g. {@code ;host=a;zone=b}
+         */
+        void tags(Metric metric, String tags) {
+            this.tagged = metric;
+            if (!tags.equals(this.tags)) {
+                this.tags = tags;
+                this.path = null;
+                Arrays.fill(attributePaths, null);
+                quantilePaths = null;
+                asciiPath = null;
+                Arrays.fill(asciiAttributePaths, null);
+                asciiQuantilePaths = null;
+            }
+        }
+
+        /**
+         * @param rules attribute rules
+         * @return attributes of the rule matching this metric or {@link AttributeRules#NO_MATCH}, matched only once
+         */
+        int attributes(AttributeRules rules) {
+            if (!attributesResolved) {
+                attributes = rules.match(name);
+                attributesResolved = true;
+            }
+            return attributes;
+        }
+
+        /**
+         * @param value raw bits of the value
+         * @param timestamp timestamp of the value in seconds
+         * @param heartbeat number of seconds after which unchanged value is sent again
+         * @return true if the same value was sent less than heartbeat seconds ago
+         */
+        boolean isUnchanged(long value, long timestamp, long heartbeat) {
+            return sent && lastValue == value && timestamp - lastSent < heartbeat;
+        }
+
+        /**
+         * Remember the last sent value.
+         *
+         * @param value raw bits of the value
+         * @param timestamp timestamp of the value in seconds
+         */
+        void sent(long value, long timestamp) {
+            this.sent = true;
+            this.lastValue = value;
+            this.lastSent = timestamp;
+        }
+    }
+}
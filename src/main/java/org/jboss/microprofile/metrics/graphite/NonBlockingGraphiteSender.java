@@ -0,0 +1,533 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Plaintext {@link GraphiteSender} which never blocks the caller.
+ * <p>
+ * Lines are appended to fixed-size ring buffer allocated off-heap and written to non-blocking {@link SocketChannel}
+ * as far as the socket accepts them, on {@link #flush()} and whenever the buffer is more than half full.
+ * Lines are encoded straight into the buffer, pre-encoded lines, see {@link AsciiGraphiteSender}, are bulk-copied to it.
+ * Lines which do not fit into the buffer are dropped according to {@link OverflowPolicy} and counted, see {@link #getDropped()}.
+ * <p>
+ * {@link #close()} is the only method which waits: it finishes pending connect and writes buffered lines
+ * for at most close timeout, so connection opened for one report delivers the report.
+ * Lines which were not written in time survive {@link #close()} and failed connections and they are sent after next {@link #connect()}.
+ * Combine with {@link PersistentGraphiteSender} to keep the connection open across reports instead.
+ *
+ * @author Libor Krzyzanek
+ */
+public class NonBlockingGraphiteSender implements AsciiGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(NonBlockingGraphiteSender.class);
+
+    /**
+     * What to drop when the ring buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard oldest buffered lines to make room for new line.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard new line.
+         */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private final String hostname;
+    private final int port;
+    private final InetSocketAddress address;
+    private final OverflowPolicy overflowPolicy;
+
+    private final ByteBuffer ring;
+    private final ByteBuffer reader;
+    private final ByteBuffer writer;
+    private final int capacity;
+    private final long closeTimeoutNanos;
+
+    private int head;
+    private int size;
+    /**
+     * First buffered line was partially written to the socket
+     */
+    private boolean midLine;
+
+    private SocketChannel channel;
+    private int failures;
+    private long dropped;
+
+    /**
+     * Written by one thread, read by reporter metrics
+     */
+    private volatile long bytesSent;
+
+    private volatile long connects;
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon plaintext port
+     */
+    public NonBlockingGraphiteSender(String hostname, int port) {
+        this(hostname, port, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon plaintext port
+     * @param capacity size of ring buffer in bytes
+     * @param overflowPolicy what to drop when buffer is full
+     */
+    public NonBlockingGraphiteSender(String hostname, int port, int capacity, OverflowPolicy overflowPolicy) {
+        this(hostname, port, capacity, overflowPolicy, DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon plaintext port
+     * @param capacity size of ring buffer in bytes
+     * @param overflowPolicy what to drop when buffer is full
+     * @param closeTimeout maximal time {@link #close()} waits for connect and write of buffered lines, 0 to not wait
+     * @param unit unit of close timeout
+     */
+    public NonBlockingGraphiteSender(String hostname, int port, int capacity, OverflowPolicy overflowPolicy,
+            long closeTimeout, TimeUnit unit) {
+        this(hostname, port, null, capacity, overflowPolicy, closeTimeout, unit);
+        if (hostname == null || hostname.isEmpty()) {
+            throw new IllegalArgumentException("hostname must not be null or empty");
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be a valid IP port (0-65535)");
+        }
+    }
+
+    /**
+     * @param address Carbon address
+     * @param capacity size of ring buffer in bytes
+     * @param overflowPolicy what to drop when buffer is full
+     */
+    public NonBlockingGraphiteSender(InetSocketAddress address, int capacity, OverflowPolicy overflowPolicy) {
+        this(address, capacity, overflowPolicy, DEFAULT_CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param address Carbon address
+     * @param capacity size of ring buffer in bytes
+     * @param overflowPolicy what to drop when buffer is full
+     * @param closeTimeout maximal time {@link #close()} waits for connect and write of buffered lines, 0 to not wait
+     * @param unit unit of close timeout
+     */
+    public NonBlockingGraphiteSender(InetSocketAddress address, int capacity, OverflowPolicy overflowPolicy,
+            long closeTimeout, TimeUnit unit) {
+        this(null, -1, address, capacity, overflowPolicy, closeTimeout, unit);
+    }
+
+    private NonBlockingGraphiteSender(String hostname, int port, InetSocketAddress address, int capacity, OverflowPolicy overflowPolicy,
+            long closeTimeout, TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        if (closeTimeout < 0) {
+            throw new IllegalArgumentException("closeTimeout must not be negative");
+        }
+        this.closeTimeoutNanos = unit.toNanos(closeTimeout);
+        this.hostname = hostname;
+        this.port = port;
+        this.address = address;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.ring = ByteBuffer.allocateDirect(capacity);
+        this.reader = ring.duplicate();
+        this.writer = ring.duplicate();
+    }
+
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        if (isConnected()) {
+            throw new IllegalStateException("Already connected");
+        }
+        InetSocketAddress address = this.address;
+        if (address == null) {
+            address = new InetSocketAddress(hostname, port);
+        }
+        if (address.isUnresolved()) {
+            failures++;
+            throw new UnknownHostException(address.getHostName());
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.connect(address);
+        } catch (Throwable e) {
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            failures++;
+            throw e;
+        }
+        this.channel = channel;
+        connects++;
+    }
+
+    /**
+     * @return true if connection is established or pending
+     */
+    @Override
+    public boolean isConnected() {
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        final int nameLength = sanitizedLength(name);
+        final int valueLength = sanitizedLength(value);
+        if (nameLength < 0 || valueLength < 0 || timestamp < 0) {
+            // rare, encoded through String
+            final byte[] v = sanitize(value).getBytes(StandardCharsets.UTF_8);
+            send(sanitize(name).getBytes(StandardCharsets.UTF_8), v, v.length,
+                    (" " + timestamp + "\n").getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        final int length = nameLength + 1 + valueLength + 1 + digits(timestamp) + 1;
+        if (!reserve(length)) {
+            return;
+        }
+        int pos = (head + size) % capacity;
+        pos = putSanitized(pos, name);
+        pos = put(pos, (byte) ' ');
+        pos = putSanitized(pos, value);
+        pos = put(pos, (byte) ' ');
+        pos = putLong(pos, timestamp);
+        put(pos, (byte) '\n');
+        appended(length);
+    }
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException {
+        final int length = path.length + 1 + valueLength + timestamp.length;
+        if (!reserve(length)) {
+            return;
+        }
+        int pos = (head + size) % capacity;
+        pos = put(pos, path, path.length);
+        pos = put(pos, (byte) ' ');
+        pos = put(pos, value, valueLength);
+        put(pos, timestamp, timestamp.length);
+        appended(length);
+    }
+
+    /**
+     * Make room for a line in ring buffer according to overflow policy.
+     *
+     * @return false if the line is dropped
+     */
+    private boolean reserve(int length) {
+        if (length > capacity) {
+            dropped++;
+            return false;
+        }
+        if (capacity - size < length) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped++;
+                return false;
+            }
+            dropOldest(length);
+            if (capacity - size < length) {
+                dropped++;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Line was written behind buffered lines.
+     */
+    private void appended(int length) {
+        size += length;
+        if (size > capacity / 2 && isConnected()) {
+            try {
+                drain();
+            } catch (IOException e) {
+                log.debug("Unable to write to Graphite, data stays buffered", e);
+            }
+        }
+    }
+
+    /**
+     * Write buffered lines as far as the socket accepts them without blocking.
+     *
+     * @throws IOException if connection failed. Buffered data is kept for next connection.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (isConnected()) {
+            drain();
+        }
+    }
+
+    /**
+     * Finish pending connect and write buffered lines, waiting at most close timeout, then close connection.
+     * Lines which were not written yet stay buffered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                drainBeforeClose();
+            } catch (IOException e) {
+                log.debug("Unable to write to Graphite before close", e);
+            } finally {
+                closeChannel();
+            }
+        }
+    }
+
+    @Override
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return number of lines dropped because of full buffer
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of buffered bytes not yet written to the socket
+     */
+    public int getBuffered() {
+        return size;
+    }
+
+    /**
+     * @return bytes written to the socket
+     */
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return number of connections started by {@link #connect()}, connect completes without blocking
+     */
+    @Override
+    public long getConnects() {
+        return connects;
+    }
+
+    private void drain() throws IOException {
+        try {
+            if (channel.isConnectionPending() && !channel.finishConnect()) {
+                return;
+            }
+            while (size > 0) {
+                final int end = Math.min(head + size, capacity);
+                // Buffer casts keep the byte code runnable on Java 8
+                ((Buffer) reader).limit(end);
+                ((Buffer) reader).position(head);
+                final int written = channel.write(reader);
+                if (written == 0) {
+                    break;
+                }
+                head = (head + written) % capacity;
+                size -= written;
+                bytesSent += written;
+                midLine = ring.get((head + capacity - 1) % capacity) != '\n';
+            }
+            failures = 0;
+        } catch (IOException e) {
+            failures++;
+            closeChannel();
+            throw e;
+        }
+    }
+
+    /**
+     * Drain until connection is established and buffer is empty or close timeout expires.
+     */
+    private void drainBeforeClose() throws IOException {
+        drain();
+        if (channel == null || closeTimeoutNanos == 0 || (size == 0 && !channel.isConnectionPending())) {
+            return;
+        }
+        final long deadline = System.nanoTime() + closeTimeoutNanos;
+        try (Selector selector = Selector.open()) {
+            final SelectionKey key = channel.register(selector, 0);
+            while (channel != null && (size > 0 || channel.isConnectionPending())) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    log.debug("Graphite did not accept {} buffered bytes before close", size);
+                    return;
+                }
+                key.interestOps(channel.isConnectionPending() ? SelectionKey.OP_CONNECT : SelectionKey.OP_WRITE);
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+                selector.selectedKeys().clear();
+                drain();
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Error closing channel", e);
+        }
+        channel = null;
+        if (midLine) {
+            // receiver has seen only part of the line, rest would be garbage on new connection
+            final int rest = lineLength(head);
+            head = (head + rest) % capacity;
+            size -= rest;
+            midLine = false;
+            dropped++;
+        }
+    }
+
+    /**
+     * Drop oldest lines until there is room for {@code needed} bytes. Partially written line is kept.
+     */
+    private void dropOldest(int needed) {
+        final int kept = midLine ? lineLength(head) : 0;
+        while (capacity - size < needed && size > kept) {
+            final int length = lineLength((head + kept) % capacity);
+            // move kept bytes right behind dropped line
+            for (int i = kept - 1; i >= 0; i--) {
+                ring.put((head + length + i) % capacity, ring.get((head + i) % capacity));
+            }
+            head = (head + length) % capacity;
+            size -= length;
+            dropped++;
+        }
+    }
+
+    private int lineLength(int from) {
+        int length = 0;
+        while (length < size) {
+            if (ring.get((from + length++) % capacity) == '\n') {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private int put(int pos, byte b) {
+        ring.put(pos, b);
+        return pos + 1 == capacity ? 0 : pos + 1;
+    }
+
+    private int put(int pos, byte[] bytes, int length) {
+        final int first = Math.min(length, capacity - pos);
+        ((Buffer) writer).position(pos);
+        writer.put(bytes, 0, first);
+        if (first < length) {
+            ((Buffer) writer).position(0);
+            writer.put(bytes, first, length - first);
+        }
+        return (pos + length) % capacity;
+    }
+
+    /**
+     * @return length of sanitized ASCII string, -1 if the string is not ASCII
+     */
+    private static int sanitizedLength(String s) {
+        int length = 0;
+        boolean whitespace = false;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                return -1;
+            }
+            if (isWhitespace(c)) {
+                if (!whitespace) {
+                    length++;
+                }
+                whitespace = true;
+                continue;
+            }
+            whitespace = false;
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write ASCII string with whitespace runs replaced by dash, see {@link #sanitizedLength(String)}.
+     */
+    private int putSanitized(int pos, String s) {
+        boolean whitespace = false;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (isWhitespace(c)) {
+                if (!whitespace) {
+                    pos = put(pos, (byte) '-');
+                }
+                whitespace = true;
+                continue;
+            }
+            whitespace = false;
+            pos = put(pos, (byte) c);
+        }
+        return pos;
+    }
+
+    /**
+     * Write non-negative number.
+     */
+    private int putLong(int pos, long v) {
+        final int digits = digits(v);
+        int end = (pos + digits) % capacity;
+        final int next = end;
+        do {
+            end = end == 0 ? capacity - 1 : end - 1;
+            ring.put(end, (byte) ('0' + v % 10));
+            v /= 10;
+        } while (v != 0);
+        return next;
+    }
+
+    private static int digits(long v) {
+        int digits = 1;
+        for (long n = v; n >= 10; n /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Same as Graphite sanitize, replaces whitespace runs by dash.
+     */
+    private static String sanitize(String s) {
+        return s.replaceAll("[\\s]+", "-");
+    }
+}
@@ -0,0 +1,340 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.net.SocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} keeping connection of the wrapped sender open across reports.
+ * <p>
+ * {@link #close()} only ends a report and the connection is reused by next {@link #connect()} if it is healthy.
+ * Connection is considered unhealthy after any failed send or flush and it is not reused when it was idle
+ * longer than the idle timeout. Failed connects are retried with exponential backoff,
+ * connect attempts during backoff fail fast without touching the network.
+ * Use {@link #disconnect()} to really close the connection.
+ * <p>
+ * Carbon may close an idle connection at any time and writes to such connection still succeed until the reset
+ * arrives, so data of the next report would be lost. When the wrapped sender is created by the function
+ * of {@link #PersistentGraphiteSender(Function, long, TimeUnit)} with the given socket factory,
+ * its socket is probed for end of stream or reset before each reuse and the connection is reopened if the peer
+ * is gone. Other senders are reused while their {@link GraphiteSender#isConnected()} is {@code true}.
+ * <p>
+ * Pre-encoded lines, see {@link AsciiGraphiteSender}, are passed to the wrapped sender if it accepts them.
+ *
+ * @author Libor Krzyzanek
+ */
+public class PersistentGraphiteSender implements AsciiGraphiteSender, DisconnectableGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(PersistentGraphiteSender.class);
+
+    public static final long DEFAULT_INITIAL_BACKOFF_SECONDS = 1;
+
+    public static final long DEFAULT_MAX_BACKOFF_SECONDS = 60;
+
+    /**
+     * How long probe waits for end of stream or reset
+     */
+    private static final int PROBE_TIMEOUT_MILLIS = 1;
+
+    private final GraphiteSender delegate;
+
+    /**
+     * Wrapped sender if it accepts ASCII bytes, otherwise null
+     */
+    private final AsciiGraphiteSender asciiDelegate;
+
+    private final ProbedSocketFactory socketFactory;
+
+    private final long idleTimeoutNanos;
+
+    private final long initialBackoffNanos;
+
+    private final long maxBackoffNanos;
+
+    private boolean healthy;
+
+    private long lastActivity;
+
+    private long backoff;
+
+    private long nextAttempt;
+
+    private volatile long connects;
+
+    /**
+     * Create sender with default backoff.
+     *
+     * @param delegate wrapped sender
+     * @param idleTimeout time after which idle connection is not reused
+     * @param unit unit of idle timeout
+     */
+    public PersistentGraphiteSender(GraphiteSender delegate, long idleTimeout, TimeUnit unit) {
+        this(delegate, unit.toNanos(idleTimeout), TimeUnit.SECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_SECONDS),
+                TimeUnit.SECONDS.toNanos(DEFAULT_MAX_BACKOFF_SECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param delegate wrapped sender
+     * @param idleTimeout time after which idle connection is not reused
+     * @param initialBackoff delay before first reconnect attempt after failed connect
+     * @param maxBackoff maximal delay between reconnect attempts
+     * @param unit unit of all durations
+     */
+    public PersistentGraphiteSender(GraphiteSender delegate, long idleTimeout, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        this(delegate, null, idleTimeout, initialBackoff, maxBackoff, unit);
+    }
+
+    /**
+     * Create sender with default backoff whose connection is probed before reuse,
+     * e.g. {@code new PersistentGraphiteSender(factory -> new Graphite(address, factory), 5, TimeUnit.MINUTES)}.
+     *
+     * @param delegate creates wrapped sender which opens its sockets by the given socket factory
+     * @param idleTimeout time after which idle connection is not reused
+     * @param unit unit of idle timeout
+     */
+    public PersistentGraphiteSender(Function<SocketFactory, GraphiteSender> delegate, long idleTimeout, TimeUnit unit) {
+        this(delegate, unit.toNanos(idleTimeout), TimeUnit.SECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_SECONDS),
+                TimeUnit.SECONDS.toNanos(DEFAULT_MAX_BACKOFF_SECONDS), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Create sender whose connection is probed before reuse.
+     *
+     * @param delegate creates wrapped sender which opens its sockets by the given socket factory
+     * @param idleTimeout time after which idle connection is not reused
+     * @param initialBackoff delay before first reconnect attempt after failed connect
+     * @param maxBackoff maximal delay between reconnect attempts
+     * @param unit unit of all durations
+     */
+    public PersistentGraphiteSender(Function<SocketFactory, GraphiteSender> delegate, long idleTimeout, long initialBackoff,
+                                    long maxBackoff, TimeUnit unit) {
+        this(new ProbedSocketFactory(), delegate, idleTimeout, initialBackoff, maxBackoff, unit);
+    }
+
+    private PersistentGraphiteSender(ProbedSocketFactory socketFactory, Function<SocketFactory, GraphiteSender> delegate,
+                                     long idleTimeout, long initialBackoff, long maxBackoff, TimeUnit unit) {
+        this(delegate.apply(socketFactory), socketFactory, idleTimeout, initialBackoff, maxBackoff, unit);
+    }
+
+    private PersistentGraphiteSender(GraphiteSender delegate, ProbedSocketFactory socketFactory, long idleTimeout,
+                                     long initialBackoff, long maxBackoff, TimeUnit unit) {
+        this.delegate = delegate;
+        this.asciiDelegate = delegate instanceof AsciiGraphiteSender ? (AsciiGraphiteSender) delegate : null;
+        this.socketFactory = socketFactory;
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.initialBackoffNanos = unit.toNanos(initialBackoff);
+        this.maxBackoffNanos = unit.toNanos(maxBackoff);
+    }
+
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        final long now = System.nanoTime();
+        if (delegate.isConnected()) {
+            final boolean reusable = healthy && now - lastActivity < idleTimeoutNanos;
+            if (reusable && !isClosedByPeer()) {
+                return;
+            }
+            log.debug("Reconnecting to Graphite. Healthy: {}, idle: {}ms, closed by peer: {}", healthy,
+                    TimeUnit.NANOSECONDS.toMillis(now - lastActivity), reusable);
+            try {
+                disconnect();
+            } catch (IOException e) {
+                // buffered data of dead connection cannot be written anyway
+                log.debug("Error closing connection", e);
+            }
+        }
+        if (backoff > 0 && now - nextAttempt < 0) {
+            throw new IOException("Connect to Graphite backed off for next " + TimeUnit.NANOSECONDS.toMillis(nextAttempt - now) + "ms");
+        }
+        try {
+            delegate.connect();
+        } catch (IOException | RuntimeException e) {
+            backoff = backoff == 0 ? initialBackoffNanos : Math.min(backoff * 2, maxBackoffNanos);
+            nextAttempt = now + backoff;
+            throw e;
+        }
+        healthy = true;
+        backoff = 0;
+        lastActivity = now;
+        connects++;
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        try {
+            delegate.send(name, value, timestamp);
+        } catch (IOException e) {
+            healthy = false;
+            throw e;
+        }
+        lastActivity = System.nanoTime();
+    }
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException {
+        try {
+            if (asciiDelegate != null) {
+                asciiDelegate.send(path, value, valueLength, timestamp);
+            } else {
+                delegate.send(new String(path, StandardCharsets.US_ASCII), new String(value, 0, valueLength, StandardCharsets.US_ASCII),
+                        AsciiGraphiteSender.parseTimestamp(timestamp));
+            }
+        } catch (IOException e) {
+            healthy = false;
+            throw e;
+        }
+        lastActivity = System.nanoTime();
+    }
+
+    /**
+     * @return true if the wrapped sender accepts ASCII bytes
+     */
+    @Override
+    public boolean isAscii() {
+        return AsciiGraphiteSender.isAscii(delegate);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        try {
+            delegate.flush();
+        } catch (IOException e) {
+            healthy = false;
+            throw e;
+        }
+    }
+
+    /**
+     * @return true if the wrapped sender is connected and its socket, if known, was not closed by peer
+     */
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected() && !isClosedByPeer();
+    }
+
+    @Override
+    public int getFailures() {
+        return delegate.getFailures();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return MeteredGraphiteSender.bytesSent(delegate);
+    }
+
+    /**
+     * @return number of connects of the wrapped sender, reused connections are not counted
+     */
+    @Override
+    public long getConnects() {
+        return connects;
+    }
+
+    /**
+     * End of report. Connection stays open unless it is unhealthy.
+     *
+     * @throws IOException if closing of unhealthy connection fails
+     */
+    @Override
+    public void close() throws IOException {
+        if (!healthy) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Close the underlying connection.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void disconnect() throws IOException {
+        healthy = false;
+        DisconnectableGraphiteSender.disconnect(delegate);
+    }
+
+    private boolean isClosedByPeer() {
+        return socketFactory != null && isClosedByPeer(socketFactory.socket);
+    }
+
+    /**
+     * Carbon never writes to the connection, so anything else than read timeout means the peer is gone.
+     *
+     * @param socket open socket or {@code null}
+     * @return true if peer closed or reset the connection
+     */
+    static boolean isClosedByPeer(Socket socket) {
+        if (socket == null || socket.isClosed()) {
+            return false;
+        }
+        try {
+            final InputStream in = socket.getInputStream();
+            if (in.available() > 0) {
+                return false;
+            }
+            final int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(PROBE_TIMEOUT_MILLIS);
+            try {
+                return in.read() < 0;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Default socket factory which remembers the last created socket.
+     */
+    private static class ProbedSocketFactory extends SocketFactory {
+
+        private final SocketFactory factory = SocketFactory.getDefault();
+
+        private volatile Socket socket;
+
+        private Socket probed(Socket socket) {
+            this.socket = socket;
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return probed(factory.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return probed(factory.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return probed(factory.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return probed(factory.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return probed(factory.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.SocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} using Carbon pickle protocol (port 2004 by default).
+ * <p>
+ * Data points are pickled (protocol 2) directly into one reusable frame buffer as list of
+ * {@code (name, (timestamp, value))} tuples. Frame is written to the socket in one write when
+ * batch size is reached or on {@link #flush()}. Default batch size keeps dozens of timers
+ * (15 data points each) in one frame.
+ * <p>
+ * Names are sanitized the same way as by {@link com.codahale.metrics.graphite.Graphite}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class PickleGraphiteSender implements MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(PickleGraphiteSender.class);
+
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    private static final int HEADER_LENGTH = 4;
+
+    // Pickle opcodes, see https://github.com/python/cpython/blob/master/Lib/pickletools.py
+    private static final byte PROTO = (byte) 0x80;
+    private static final byte EMPTY_LIST = ']';
+    private static final byte MARK = '(';
+    private static final byte BINUNICODE = 'X';
+    private static final byte BININT = 'J';
+    private static final byte LONG1 = (byte) 0x8a;
+    private static final byte TUPLE2 = (byte) 0x86;
+    private static final byte APPENDS = 'e';
+    private static final byte STOP = '.';
+
+    private final String hostname;
+    private final int port;
+    private final InetSocketAddress address;
+    private final SocketFactory socketFactory;
+    private final int batchSize;
+
+    private Socket socket;
+    private OutputStream out;
+    private int failures;
+
+    /**
+     * Written by one thread, read by reporter metrics
+     */
+    private volatile long bytesSent;
+
+    private volatile long connects;
+
+    private byte[] frame = new byte[8192];
+    private int length;
+    private int points;
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon pickle port, usually 2004
+     */
+    public PickleGraphiteSender(String hostname, int port) {
+        this(hostname, port, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon pickle port, usually 2004
+     * @param batchSize number of data points in one frame
+     */
+    public PickleGraphiteSender(String hostname, int port, int batchSize) {
+        this(hostname, port, SocketFactory.getDefault(), batchSize);
+    }
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon pickle port, usually 2004
+     * @param socketFactory socket factory
+     * @param batchSize number of data points in one frame
+     */
+    public PickleGraphiteSender(String hostname, int port, SocketFactory socketFactory, int batchSize) {
+        if (hostname == null || hostname.isEmpty()) {
+            throw new IllegalArgumentException("hostname must not be null or empty");
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be a valid IP port (0-65535)");
+        }
+        this.hostname = hostname;
+        this.port = port;
+        this.address = null;
+        this.socketFactory = socketFactory;
+        this.batchSize = checkBatchSize(batchSize);
+    }
+
+    /**
+     * @param address Carbon address
+     * @param socketFactory socket factory
+     * @param batchSize number of data points in one frame
+     */
+    public PickleGraphiteSender(InetSocketAddress address, SocketFactory socketFactory, int batchSize) {
+        this.hostname = null;
+        this.port = -1;
+        this.address = address;
+        this.socketFactory = socketFactory;
+        this.batchSize = checkBatchSize(batchSize);
+    }
+
+    private static int checkBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        return batchSize;
+    }
+
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        if (isConnected()) {
+            throw new IllegalStateException("Already connected");
+        }
+        InetSocketAddress address = this.address;
+        if (address == null) {
+            address = new InetSocketAddress(hostname, port);
+        }
+        if (address.getAddress() == null) {
+            throw new UnknownHostException(address.getHostName());
+        }
+        this.socket = socketFactory.createSocket(address.getAddress(), address.getPort());
+        this.out = socket.getOutputStream();
+        this.length = 0;
+        this.points = 0;
+        connects++;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket != null && socket.isConnected() && !socket.isClosed();
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        if (points == 0) {
+            startFrame();
+        }
+        ensureCapacity(name.length() * 3 + value.length() * 3 + 32);
+        writeString(name);
+        writeTimestamp(timestamp);
+        writeString(value);
+        frame[length++] = TUPLE2;
+        frame[length++] = TUPLE2;
+        if (++points >= batchSize) {
+            writeFrame();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (points > 0) {
+            writeFrame();
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (points > 0 && out != null) {
+                writeFrame();
+            }
+        } finally {
+            points = 0;
+            length = 0;
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                log.debug("Error closing socket", e);
+            } finally {
+                this.socket = null;
+                this.out = null;
+            }
+        }
+    }
+
+    @Override
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return bytes of written frames including their length headers
+     */
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public long getConnects() {
+        return connects;
+    }
+
+    private void startFrame() {
+        length = HEADER_LENGTH;
+        frame[length++] = PROTO;
+        frame[length++] = 2;
+        frame[length++] = EMPTY_LIST;
+        frame[length++] = MARK;
+    }
+
+    private void writeFrame() throws IOException {
+        ensureCapacity(2);
+        frame[length++] = APPENDS;
+        frame[length++] = STOP;
+        final int payload = length - HEADER_LENGTH;
+        frame[0] = (byte) (payload >>> 24);
+        frame[1] = (byte) (payload >>> 16);
+        frame[2] = (byte) (payload >>> 8);
+        frame[3] = (byte) payload;
+        final int sent = points;
+        points = 0;
+        try {
+            if (out == null) {
+                throw new IOException("Not connected");
+            }
+            out.write(frame, 0, length);
+            bytesSent += length;
+            failures = 0;
+        } catch (IOException e) {
+            failures++;
+            log.debug("Unable to send {} data points", sent);
+            throw e;
+        } finally {
+            length = 0;
+        }
+    }
+
+    private void writeTimestamp(long timestamp) {
+        if (timestamp >= Integer.MIN_VALUE && timestamp <= Integer.MAX_VALUE) {
+            frame[length++] = BININT;
+            writeIntLE((int) timestamp);
+        } else {
+            frame[length++] = LONG1;
+            frame[length++] = 8;
+            for (int i = 0; i < 8; i++) {
+                frame[length++] = (byte) (timestamp >>> (8 * i));
+            }
+        }
+    }
+
+    /**
+     * Write BINUNICODE string. ASCII strings are encoded in place, others through {@link String#getBytes}.
+     */
+    private void writeString(String s) {
+        frame[length++] = BINUNICODE;
+        final int lengthPos = length;
+        length += 4;
+        final int start = length;
+        boolean whitespace = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                length = start;
+                writeBytes(sanitize(s));
+                break;
+            }
+            if (isWhitespace(c)) {
+                if (!whitespace) {
+                    frame[length++] = '-';
+                }
+                whitespace = true;
+                continue;
+            }
+            whitespace = false;
+            frame[length++] = (byte) c;
+        }
+        final int end = length;
+        length = lengthPos;
+        writeIntLE(end - start);
+        length = end;
+    }
+
+    private void writeBytes(String s) {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, frame, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeIntLE(int v) {
+        frame[length++] = (byte) v;
+        frame[length++] = (byte) (v >>> 8);
+        frame[length++] = (byte) (v >>> 16);
+        frame[length++] = (byte) (v >>> 24);
+    }
+
+    private void ensureCapacity(int additional) {
+        if (length + additional > frame.length) {
+            byte[] bigger = new byte[Math.max(frame.length * 2, length + additional)];
+            System.arraycopy(frame, 0, bigger, 0, length);
+            frame = bigger;
+        }
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Same as Graphite sanitize, replaces whitespace runs by dash.
+     */
+    private static String sanitize(String s) {
+        return s.replaceAll("[\\s]+", "-");
+    }
+}
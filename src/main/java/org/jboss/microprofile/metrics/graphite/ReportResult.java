@@ -0,0 +1,92 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+
+/**
+ * Summary of reporting one registry.
+ *
+ * @author Libor Krzyzanek
+ */
+public class ReportResult {
+
+    private final MetricRegistry.Type scope;
+
+    private final int metrics;
+
+    private final int points;
+
+    private final Exception failure;
+
+    private final long collectNanos;
+
+    private final long sendNanos;
+
+    public ReportResult(MetricRegistry.Type scope, int metrics, int points, Exception failure) {
+        this(scope, metrics, points, failure, 0, 0);
+    }
+
+    public ReportResult(MetricRegistry.Type scope, int metrics, int points, Exception failure, long collectNanos, long sendNanos) {
+        this.scope = scope;
+        this.metrics = metrics;
+        this.points = points;
+        this.failure = failure;
+        this.collectNanos = collectNanos;
+        this.sendNanos = sendNanos;
+    }
+
+    /**
+     * @return registry type
+     */
+    public MetricRegistry.Type getScope() {
+        return scope;
+    }
+
+    /**
+     * @return number of reported metrics which passed the filter
+     */
+    public int getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return number of data points handed to the sender
+     */
+    public int getPoints() {
+        return points;
+    }
+
+    /**
+     * @return exception which interrupted reporting of the registry or {@code null}
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return time spent reading values of the registry in nanoseconds
+     */
+    public long getCollectNanos() {
+        return collectNanos;
+    }
+
+    /**
+     * @return time spent sending data points of the registry in nanoseconds.
+     * Final flush of multi-registry report is counted to the last registry.
+     */
+    public long getSendNanos() {
+        return sendNanos;
+    }
+
+    /**
+     * @return true if all data points of the registry were sent and flushed
+     */
+    public boolean isSuccess() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return "ReportResult{scope=" + scope + ", metrics=" + metrics + ", points=" + points + ", failure=" + failure
+                + ", collectNanos=" + collectNanos + ", sendNanos=" + sendNanos + '}';
+    }
+}
@@ -0,0 +1,107 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+
+/**
+ * Metrics of the reporter itself registered in MicroProfile registry, see
+ * {@link GraphiteReporter.Builder#selfMetrics(MetricRegistry)}.
+ * <p>
+ * Metrics of each reported registry are registered on its first report, later reports only update them.
+ *
+ * @author Libor Krzyzanek
+ */
+class ReporterMetrics {
+
+    static final String PREFIX = "graphite.reporter";
+
+    private final MetricRegistry registry;
+
+    private final Timer connect;
+
+    private final Map<String, Scope> scopes = new ConcurrentHashMap<>();
+
+    ReporterMetrics(MetricRegistry registry) {
+        this.registry = registry;
+        this.connect = registry.timer(metadata(PREFIX + ".connect", MetricType.TIMER, MetricUnits.NANOSECONDS,
+                "Latency of connects which opened a connection to Graphite"));
+    }
+
+    /**
+     * @param nanos duration of connect which opened a connection to Graphite
+     */
+    void connected(long nanos) {
+        connect.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param name registry name
+     * @return metrics of the registry
+     */
+    Scope scope(String name) {
+        final Scope scope = scopes.get(name);
+        return scope != null ? scope : scopes.computeIfAbsent(name, Scope::new);
+    }
+
+    private static Metadata metadata(String name, MetricType type, String unit, String description) {
+        final Metadata metadata = new Metadata(name, name, description, type, unit);
+        metadata.setReusable(true);
+        return metadata;
+    }
+
+    /**
+     * Metrics of one reported registry
+     */
+    class Scope {
+        private final Timer collect;
+        private final Timer send;
+        private final Counter points;
+        private final Counter bytes;
+        private final Counter failures;
+        private final Counter skippedAttributes;
+        private volatile int metrics;
+
+        private Scope(String name) {
+            final String prefix = PREFIX + "." + name;
+            collect = registry.timer(metadata(prefix + ".collect", MetricType.TIMER, MetricUnits.NANOSECONDS,
+                    "Time of reading metrics of the registry"));
+            send = registry.timer(metadata(prefix + ".send", MetricType.TIMER, MetricUnits.NANOSECONDS,
+                    "Time of sending data points of the registry"));
+            points = registry.counter(metadata(prefix + ".points", MetricType.COUNTER, MetricUnits.NONE,
+                    "Data points sent"));
+            bytes = registry.counter(metadata(prefix + ".bytes", MetricType.COUNTER, MetricUnits.BYTES,
+                    "Bytes sent"));
+            failures = registry.counter(metadata(prefix + ".failures", MetricType.COUNTER, MetricUnits.NONE,
+                    "Reports of the registry which failed"));
+            skippedAttributes = registry.counter(metadata(prefix + ".skippedAttributes", MetricType.COUNTER, MetricUnits.NONE,
+                    "Attributes of histograms, meters and timers not sent because they are disabled"));
+
+            final String metricsName = prefix + ".metrics";
+            // gauge of previous reporter would keep reading its values
+            registry.remove(metricsName);
+            registry.register(metadata(metricsName, MetricType.GAUGE, MetricUnits.NONE, "Metrics reported in last report"),
+                    (Gauge<Integer>) () -> this.metrics);
+        }
+
+        void reported(int metrics, long collectNanos, long sendNanos, int points, long bytes, int skippedAttributes, boolean failed) {
+            this.metrics = metrics;
+            collect.update(collectNanos, TimeUnit.NANOSECONDS);
+            send.update(sendNanos, TimeUnit.NANOSECONDS);
+            this.points.inc(points);
+            this.bytes.inc(bytes);
+            this.skippedAttributes.inc(skippedAttributes);
+            if (failed) {
+                failures.inc();
+            }
+        }
+    }
+}
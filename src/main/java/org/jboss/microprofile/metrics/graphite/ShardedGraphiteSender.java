@@ -0,0 +1,356 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} which routes each series to one of several senders by consistent hashing of metric path.
+ * <p>
+ * The hash ring is the same as {@code ConsistentHashRing} of carbon-relay with {@code carbon_ch} hash type,
+ * so a series goes to the same Carbon instance as if it was sent through carbon-relay with
+ * {@code RELAY_METHOD = consistent-hashing} and the same {@code DESTINATIONS} in the same order.
+ * <p>
+ * Each shard keeps its own connection and buffer. Shards which fail to connect are skipped and their data points
+ * are dropped until next {@link #connect()}, see {@link #getDropped()}. Shards are flushed concurrently.
+ *
+ * @author Libor Krzyzanek
+ */
+public class ShardedGraphiteSender implements DisconnectableGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(ShardedGraphiteSender.class);
+
+    /**
+     * Default replica count of carbon-relay
+     */
+    public static final int DEFAULT_REPLICAS = 100;
+
+    /**
+     * Routed paths are cached up to this number of paths
+     */
+    private static final int MAX_CACHED_PATHS = 1 << 20;
+
+    private final String[] destinations;
+
+    private final GraphiteSender[] shards;
+
+    private final boolean[] connected;
+
+    private final int[] ringPositions;
+
+    private final int[] ringShards;
+
+    private final MessageDigest md5;
+
+    private final Map<String, Integer> routes = new HashMap<>();
+
+    private final ExecutorService flushExecutor;
+
+    private long dropped;
+
+    /**
+     * @param shards senders by carbon-relay destination ({@code host:port[:instance]}) in order of {@code DESTINATIONS}
+     */
+    public ShardedGraphiteSender(Map<String, GraphiteSender> shards) {
+        this(shards, DEFAULT_REPLICAS);
+    }
+
+    /**
+     * @param shards senders by carbon-relay destination ({@code host:port[:instance]}) in order of {@code DESTINATIONS}
+     * @param replicas number of ring positions of each destination, {@code REPLICATION_FACTOR} is not related
+     */
+    public ShardedGraphiteSender(Map<String, GraphiteSender> shards, int replicas) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        if (replicas < 1) {
+            throw new IllegalArgumentException("replicas must be positive");
+        }
+        try {
+            this.md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        this.destinations = shards.keySet().toArray(new String[0]);
+        this.shards = shards.values().toArray(new GraphiteSender[0]);
+        this.connected = new boolean[this.shards.length];
+
+        // ring entries sorted by position, see carbon.hashing.ConsistentHashRing.add_node
+        final List<long[]> ring = new ArrayList<>();
+        final Set<Integer> positions = new HashSet<>();
+        for (int shard = 0; shard < destinations.length; shard++) {
+            final String node = nodeKey(destinations[shard]);
+            for (int i = 0; i < replicas; i++) {
+                int position = position(node + ":" + i);
+                while (!positions.add(position)) {
+                    position++;
+                }
+                ring.add(new long[]{position, shard});
+            }
+        }
+        ring.sort((a, b) -> Long.compare(a[0], b[0]));
+        this.ringPositions = new int[ring.size()];
+        this.ringShards = new int[ring.size()];
+        for (int i = 0; i < ring.size(); i++) {
+            ringPositions[i] = (int) ring.get(i)[0];
+            ringShards[i] = (int) ring.get(i)[1];
+        }
+
+        this.flushExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "graphite-shard-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Ring key of destination, i.e. Python representation of (server, instance) tuple.
+     */
+    private static String nodeKey(String destination) {
+        final String[] parts = destination.split(":");
+        if (parts.length < 2 || parts.length > 3) {
+            throw new IllegalArgumentException("Destination must be host:port[:instance], was " + destination);
+        }
+        final String instance = parts.length == 3 ? pythonString(parts[2]) : "None";
+        return "(" + pythonString(parts[0]) + ", " + instance + ")";
+    }
+
+    private static String pythonString(String s) {
+        if (s.indexOf('\'') >= 0 && s.indexOf('"') < 0) {
+            return '"' + s.replace("\\", "\\\\") + '"';
+        }
+        return '\'' + s.replace("\\", "\\\\").replace("'", "\\'") + '\'';
+    }
+
+    /**
+     * First two bytes of MD5 digest, see carbon.hashing.ConsistentHashRing.compute_ring_position
+     */
+    private int position(String key) {
+        final byte[] digest = md5.digest(key.getBytes(StandardCharsets.UTF_8));
+        return ((digest[0] & 0xff) << 8) | (digest[1] & 0xff);
+    }
+
+    /**
+     * @param path metric path
+     * @return index of shard the path is routed to
+     */
+    int shard(String path) {
+        Integer shard = routes.get(path);
+        if (shard == null) {
+            final int position = position(path);
+            int index = Arrays.binarySearch(ringPositions, position);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            shard = ringShards[index % ringPositions.length];
+            if (routes.size() >= MAX_CACHED_PATHS) {
+                routes.clear();
+            }
+            routes.put(path, shard);
+        }
+        return shard;
+    }
+
+    /**
+     * Connect all shards. Fails only if no shard can be connected.
+     */
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        IOException failure = null;
+        int connectedShards = 0;
+        for (int i = 0; i < shards.length; i++) {
+            try {
+                shards[i].connect();
+                connected[i] = true;
+                connectedShards++;
+            } catch (IOException e) {
+                connected[i] = false;
+                log.warn("Unable to connect to shard {}: {}", destinations[i], e.toString());
+                failure = e;
+            }
+        }
+        if (connectedShards == 0) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        final int shard = shard(name);
+        if (!connected[shard]) {
+            dropped++;
+            return;
+        }
+        shards[shard].send(name, value, timestamp);
+    }
+
+    /**
+     * Flush all connected shards concurrently.
+     *
+     * @throws IOException first failure after all shards were flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(shards.length);
+        int first = -1;
+        for (int i = 0; i < shards.length; i++) {
+            if (!connected[i]) {
+                continue;
+            }
+            if (first < 0) {
+                first = i;
+                continue;
+            }
+            final GraphiteSender shard = shards[i];
+            futures.add(CompletableFuture.runAsync(() -> {
+                try {
+                    shard.flush();
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, flushExecutor));
+        }
+        IOException failure = null;
+        if (first >= 0) {
+            try {
+                shards[first].flush();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                if (failure == null && e.getCause() instanceof IOException) {
+                    failure = (IOException) e.getCause();
+                } else if (!(e.getCause() instanceof IOException)) {
+                    throw e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return true if at least one shard is connected
+     */
+    @Override
+    public boolean isConnected() {
+        for (GraphiteSender shard : shards) {
+            if (shard.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return sum of failures of all shards
+     */
+    @Override
+    public int getFailures() {
+        int failures = 0;
+        for (GraphiteSender shard : shards) {
+            failures += shard.getFailures();
+        }
+        return failures;
+    }
+
+    /**
+     * @return sum of bytes sent by all shards, {@code -1} if any shard does not count them
+     */
+    @Override
+    public long getBytesSent() {
+        long bytes = 0;
+        for (GraphiteSender shard : shards) {
+            final long shardBytes = MeteredGraphiteSender.bytesSent(shard);
+            if (shardBytes < 0) {
+                return -1;
+            }
+            bytes += shardBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return sum of connections opened by all shards, {@code -1} if any shard does not count them
+     */
+    @Override
+    public long getConnects() {
+        long connects = 0;
+        for (GraphiteSender shard : shards) {
+            final long shardConnects = MeteredGraphiteSender.connects(shard);
+            if (shardConnects < 0) {
+                return -1;
+            }
+            connects += shardConnects;
+        }
+        return connects;
+    }
+
+    /**
+     * @return number of data points dropped because their shard was not connected
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < shards.length; i++) {
+            connected[i] = false;
+            try {
+                shards[i].close();
+            } catch (IOException e) {
+                log.debug("Error closing shard {}", destinations[i], e);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Disconnect all shards, see {@link DisconnectableGraphiteSender}.
+     *
+     * @throws IOException if disconnect of any shard fails
+     */
+    @Override
+    public void disconnect() throws IOException {
+        IOException failure = null;
+        for (int i = 0; i < shards.length; i++) {
+            connected[i] = false;
+            try {
+                DisconnectableGraphiteSender.disconnect(shards[i]);
+            } catch (IOException e) {
+                log.debug("Error disconnecting shard {}", destinations[i], e);
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Arrays;
+
+import org.eclipse.microprofile.metrics.Snapshot;
+
+/**
+ * Statistics of {@link Snapshot} computed in one pass over {@link Snapshot#getValues()}.
+ * <p>
+ * Mean and standard deviation are computed by Welford's algorithm together with minimum and maximum.
+ * Values are sorted into reusable buffer only if percentiles are requested and values are not sorted already.
+ * Percentiles are interpolated as in uniform snapshot of Dropwizard Metrics. All values have the same weight.
+ * Results are kept in primitive arrays reused by next {@link #compute(Snapshot, int, double[])}.
+ *
+ * @author Libor Krzyzanek
+ */
+class SnapshotStatistics {
+
+    private static final int MAX = AttributeMask.bit(MetricAttribute.MAX);
+    private static final int MIN = AttributeMask.bit(MetricAttribute.MIN);
+
+    /**
+     * Results by attribute ordinal
+     */
+    private final double[] results = new double[MetricAttribute.values().length];
+
+    /**
+     * Results of configured quantiles
+     */
+    private double[] quantileResults = new double[0];
+
+    private long max;
+    private long min;
+
+    private long[] sorted = new long[1024];
+
+    /**
+     * @param snapshot snapshot
+     * @param attributes requested snapshot attributes, see {@link AttributeMask#SNAPSHOT}
+     * @param quantiles requested quantiles or null
+     */
+    void compute(Snapshot snapshot, int attributes, double[] quantiles) {
+        if (quantiles != null && quantileResults.length < quantiles.length) {
+            quantileResults = new double[quantiles.length];
+        }
+        if ((attributes & ~(MAX | MIN)) == 0 && quantiles == null) {
+            // no need to copy values
+            max = snapshot.getMax();
+            min = snapshot.getMin();
+            results[MetricAttribute.MAX.ordinal()] = max;
+            results[MetricAttribute.MIN.ordinal()] = min;
+            return;
+        }
+        final long[] values = snapshot.getValues();
+        final int n = values.length;
+        if (n == 0) {
+            Arrays.fill(results, 0);
+            Arrays.fill(quantileResults, 0);
+            max = 0;
+            min = 0;
+            return;
+        }
+
+        long max = values[0];
+        long min = values[0];
+        double mean = 0;
+        double m2 = 0;
+        boolean ascending = true;
+        for (int i = 0; i < n; i++) {
+            final long value = values[i];
+            if (value > max) {
+                max = value;
+            } else if (value < min) {
+                min = value;
+            }
+            if (i > 0 && value < values[i - 1]) {
+                ascending = false;
+            }
+            final double delta = value - mean;
+            mean += delta / (i + 1);
+            m2 += delta * (value - mean);
+        }
+        this.max = max;
+        this.min = min;
+        results[MetricAttribute.MAX.ordinal()] = max;
+        results[MetricAttribute.MIN.ordinal()] = min;
+        results[MetricAttribute.MEAN.ordinal()] = mean;
+        results[MetricAttribute.STDDEV.ordinal()] = n > 1 ? Math.sqrt(m2 / (n - 1)) : 0;
+
+        if ((attributes & AttributeMask.PERCENTILES) == 0 && quantiles == null) {
+            return;
+        }
+        long[] sorted = values;
+        if (!ascending) {
+            if (this.sorted.length < n) {
+                this.sorted = new long[Math.max(this.sorted.length * 2, n)];
+            }
+            sorted = this.sorted;
+            System.arraycopy(values, 0, sorted, 0, n);
+            Arrays.sort(sorted, 0, n);
+        }
+        for (int mask = attributes & AttributeMask.PERCENTILES; mask != 0; mask &= mask - 1) {
+            final MetricAttribute attribute = AttributeMask.attribute(mask);
+            results[attribute.ordinal()] = quantile(sorted, n, quantile(attribute));
+        }
+        if (quantiles != null) {
+            for (int i = 0; i < quantiles.length; i++) {
+                quantileResults[i] = quantile(sorted, n, quantiles[i]);
+            }
+        }
+    }
+
+    private static double quantile(MetricAttribute attribute) {
+        switch (attribute) {
+            case P50:
+                return 0.5;
+            case P75:
+                return 0.75;
+            case P95:
+                return 0.95;
+            case P98:
+                return 0.98;
+            case P99:
+                return 0.99;
+            case P999:
+                return 0.999;
+            default:
+                throw new IllegalArgumentException(attribute + " is not percentile");
+        }
+    }
+
+    /**
+     * Quantile of sorted values, see {@code com.codahale.metrics.UniformSnapshot#getValue(double)}
+     */
+    private static double quantile(long[] sorted, int n, double quantile) {
+        final double pos = quantile * (n + 1);
+        final int index = (int) pos;
+        if (index < 1) {
+            return sorted[0];
+        }
+        if (index >= n) {
+            return sorted[n - 1];
+        }
+        final double lower = sorted[index - 1];
+        final double upper = sorted[index];
+        return lower + (pos - Math.floor(pos)) * (upper - lower);
+    }
+
+    /**
+     * @param attribute snapshot attribute requested by last {@link #compute(Snapshot, int, double[])}
+     * @return value of the attribute
+     */
+    double get(MetricAttribute attribute) {
+        return results[attribute.ordinal()];
+    }
+
+    /**
+     * @param quantile index of quantile requested by last {@link #compute(Snapshot, int, double[])}
+     * @return value of the quantile
+     */
+    double getQuantile(int quantile) {
+        return quantileResults[quantile];
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    long getMin() {
+        return min;
+    }
+}
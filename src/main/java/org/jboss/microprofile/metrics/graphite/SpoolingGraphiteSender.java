@@ -0,0 +1,363 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * {@link GraphiteSender} which writes data points to disk spool when the wrapped sender fails and replays them later.
+ * <p>
+ * Data points handed to the wrapped sender are kept in memory journal until its {@link #flush()} succeeds,
+ * because buffered senders lose everything written since last flush when connection breaks.
+ * When send or flush fails, journaled data points go to the spool, so some of them may be delivered twice.
+ * <p>
+ * Failed connect or send does not throw. The data point and all following data points of the report go to the spool
+ * until next {@link #connect()} succeeds. Spooled data points are replayed in the order they were spooled
+ * (i.e. by timestamp) after successful connect and on flush, limited to given rate so recovering Carbon is not flooded.
+ * Replayed data points are removed from the spool only after flush of the wrapped sender succeeds, otherwise
+ * replay starts again from the first of them, so the spool keeps its order.
+ * New data points are sent directly even while older ones are being replayed.
+ * <p>
+ * Spool is written to disk on each flush. It is bounded by segment size times number of segments, see {@link DiskSpool}.
+ * <p>
+ * Pre-encoded lines, see {@link AsciiGraphiteSender}, are passed to the wrapped sender if it accepts them
+ * and they are journaled and spooled as bytes.
+ *
+ * @author Libor Krzyzanek
+ */
+public class SpoolingGraphiteSender implements AsciiGraphiteSender, DisconnectableGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(SpoolingGraphiteSender.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_MAX_SEGMENTS = 8;
+
+    public static final int DEFAULT_REPLAY_RATE = 1000;
+
+    /**
+     * Replay budget accumulated during idle time is capped to this number of seconds.
+     */
+    private static final long MAX_BURST_SECONDS = 60;
+
+    private final GraphiteSender delegate;
+
+    /**
+     * Wrapped sender if it accepts ASCII bytes, otherwise null
+     */
+    private final AsciiGraphiteSender asciiDelegate;
+
+    private final DiskSpool spool;
+
+    private final int replayRate;
+
+    private boolean up;
+
+    /**
+     * Data points sent to the wrapped sender since its last successful flush
+     */
+    private final Journal journal = new Journal();
+
+    private double replayBudget;
+
+    private long lastReplay = System.nanoTime();
+
+    /**
+     * Create sender with default segment size, number of segments and replay rate.
+     *
+     * @param delegate wrapped sender
+     * @param directory spool directory
+     * @throws IOException if spool cannot be opened
+     */
+    public SpoolingGraphiteSender(GraphiteSender delegate, File directory) throws IOException {
+        this(delegate, directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS, DEFAULT_REPLAY_RATE);
+    }
+
+    /**
+     * @param delegate wrapped sender
+     * @param directory spool directory
+     * @param segmentSize size of one segment file in bytes
+     * @param maxSegments maximum number of segment files
+     * @param replayRate maximum number of replayed data points per second
+     * @throws IOException if spool cannot be opened
+     */
+    public SpoolingGraphiteSender(GraphiteSender delegate, File directory, int segmentSize, int maxSegments, int replayRate) throws IOException {
+        if (replayRate < 1) {
+            throw new IllegalArgumentException("replayRate must be positive");
+        }
+        this.delegate = delegate;
+        this.asciiDelegate = delegate instanceof AsciiGraphiteSender ? (AsciiGraphiteSender) delegate : null;
+        this.spool = new DiskSpool(directory, segmentSize, maxSegments);
+        this.replayRate = replayRate;
+    }
+
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        try {
+            delegate.connect();
+            up = true;
+        } catch (IOException e) {
+            up = false;
+            log.warn("Unable to connect to Graphite, data points are spooled: {}", e.toString());
+            return;
+        }
+        replay();
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        if (up) {
+            try {
+                delegate.send(name, value, timestamp);
+                journal.add(name, value, timestamp);
+                return;
+            } catch (IOException e) {
+                log.warn("Unable to send to Graphite, data points are spooled", e);
+                failed();
+            }
+        }
+        spool.append(name, value, timestamp);
+    }
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException {
+        final long seconds = AsciiGraphiteSender.parseTimestamp(timestamp);
+        if (up) {
+            try {
+                if (asciiDelegate != null) {
+                    asciiDelegate.send(path, value, valueLength, timestamp);
+                } else {
+                    delegate.send(new String(path, StandardCharsets.US_ASCII),
+                            new String(value, 0, valueLength, StandardCharsets.US_ASCII), seconds);
+                }
+                journal.add(path, value, valueLength, seconds);
+                return;
+            } catch (IOException e) {
+                log.warn("Unable to send to Graphite, data points are spooled", e);
+                failed();
+            }
+        }
+        spool.append(path, value, valueLength, seconds);
+    }
+
+    /**
+     * @return true if the wrapped sender accepts ASCII bytes
+     */
+    @Override
+    public boolean isAscii() {
+        return AsciiGraphiteSender.isAscii(delegate);
+    }
+
+    /**
+     * Replay spooled data points and flush the wrapped sender. Replayed data points are removed from the spool
+     * and journaled data points are spooled if flush fails. Spool is written to disk.
+     *
+     * @throws IOException if flush of the wrapped sender failed
+     */
+    @Override
+    public void flush() throws IOException {
+        try {
+            if (!up) {
+                return;
+            }
+            replay();
+            if (!up) {
+                // replay failed and spooled the journal
+                return;
+            }
+            try {
+                delegate.flush();
+                journal.clear();
+                spool.commit();
+            } catch (IOException e) {
+                try {
+                    failed();
+                } catch (IOException spoolFailure) {
+                    e.addSuppressed(spoolFailure);
+                }
+                throw e;
+            }
+        } finally {
+            spool.force();
+        }
+    }
+
+    /**
+     * Wrapped sender failed. Replay starts again from the first data point not confirmed by flush,
+     * data points sent directly since last flush go to the spool after it.
+     */
+    private void failed() throws IOException {
+        up = false;
+        spool.rewind();
+        spoolJournal();
+    }
+
+    /**
+     * Move data points which were not confirmed by flush to the spool.
+     */
+    private void spoolJournal() throws IOException {
+        if (journal.size > 0) {
+            log.warn("Spooling {} data points not confirmed by flush", journal.size);
+        }
+        try {
+            for (int i = 0; i < journal.size; i++) {
+                if (journal.paths[i] != null) {
+                    spool.append(journal.paths[i], journal.asciiValues[i], journal.asciiValues[i].length, journal.timestamps[i]);
+                } else {
+                    spool.append(journal.names[i], journal.values[i], journal.timestamps[i]);
+                }
+            }
+        } finally {
+            journal.clear();
+        }
+    }
+
+    private void replay() {
+        final long now = System.nanoTime();
+        replayBudget = Math.min(replayBudget + (now - lastReplay) * replayRate / 1e9, replayRate * MAX_BURST_SECONDS);
+        lastReplay = now;
+        if (spool.isEmpty()) {
+            return;
+        }
+        int replayed = 0;
+        try {
+            while (up && replayBudget >= 1 && spool.read()) {
+                delegate.send(spool.getName(), spool.getValue(), spool.getTimestamp());
+                replayBudget--;
+                replayed++;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to replay spooled data points", e);
+            try {
+                failed();
+            } catch (IOException spoolFailure) {
+                log.warn("Unable to spool data points", spoolFailure);
+            }
+        }
+        log.debug("Replayed {} data points, {} not replayed", replayed, spool.size() - spool.uncommitted());
+    }
+
+    @Override
+    public boolean isConnected() {
+        return delegate.isConnected();
+    }
+
+    @Override
+    public int getFailures() {
+        return delegate.getFailures();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return MeteredGraphiteSender.bytesSent(delegate);
+    }
+
+    @Override
+    public long getConnects() {
+        return MeteredGraphiteSender.connects(delegate);
+    }
+
+    /**
+     * @return number of data points waiting in spool
+     */
+    public long getSpooled() {
+        return spool.size();
+    }
+
+    /**
+     * @return number of data points lost because of full spool
+     */
+    public long getDropped() {
+        return spool.getDropped();
+    }
+
+    /**
+     * Close the wrapped sender. Data points sent since last flush are flushed first or spooled.
+     */
+    @Override
+    public void close() throws IOException {
+        flushJournal();
+        delegate.close();
+    }
+
+    private void flushJournal() {
+        if (journal.size > 0 || spool.uncommitted() > 0) {
+            try {
+                flush();
+            } catch (IOException e) {
+                log.debug("Unable to flush before close, data points are spooled", e);
+            }
+        }
+    }
+
+    /**
+     * Close the wrapped sender and write the spool to disk. Sender can be connected again.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void disconnect() throws IOException {
+        flushJournal();
+        try {
+            DisconnectableGraphiteSender.disconnect(delegate);
+        } finally {
+            spool.close();
+        }
+    }
+
+    /**
+     * Data points in order they were sent, arrays are reused after {@link #clear()}.
+     * Pre-encoded data points have path, the others have name.
+     */
+    private static class Journal {
+        private String[] names = new String[256];
+        private String[] values = new String[256];
+        private byte[][] paths = new byte[256][];
+        private byte[][] asciiValues = new byte[256][];
+        private long[] timestamps = new long[256];
+        private int size;
+
+        void add(String name, String value, long timestamp) {
+            ensureCapacity();
+            names[size] = name;
+            values[size] = value;
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        /**
+         * Arrays are copied, caller reuses them.
+         */
+        void add(byte[] path, byte[] value, int valueLength, long timestamp) {
+            ensureCapacity();
+            paths[size] = path.clone();
+            asciiValues[size] = Arrays.copyOf(value, valueLength);
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        private void ensureCapacity() {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                paths = Arrays.copyOf(paths, size * 2);
+                asciiValues = Arrays.copyOf(asciiValues, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(names, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            Arrays.fill(paths, 0, size, null);
+            Arrays.fill(asciiValues, 0, size, null);
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.net.UnknownHostException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Plaintext {@link GraphiteSender} over UDP.
+ * <p>
+ * Lines are packed into datagrams of at most given size. Datagram is sent when next line does not fit and on
+ * {@link #flush()}. ASCII lines are encoded directly into one reusable direct buffer, so no objects are allocated
+ * per data point. Pre-encoded lines, see {@link AsciiGraphiteSender}, are bulk-copied. Lines longer than the datagram size
+ * are dropped, see {@link #getDropped()}.
+ * <p>
+ * Delivery is not guaranteed, use for loss-tolerant metrics only. When Carbon is not listening, the connected channel
+ * reports ICMP port unreachable on a later write. Lines of such datagram are counted, see {@link #getLost()},
+ * and sending continues.
+ *
+ * @author Libor Krzyzanek
+ */
+public class UdpGraphiteSender implements AsciiGraphiteSender, MeteredGraphiteSender {
+
+    Logger log = LoggerFactory.getLogger(UdpGraphiteSender.class);
+
+    /**
+     * Ethernet MTU minus IPv4 and UDP headers
+     */
+    public static final int DEFAULT_DATAGRAM_SIZE = 1472;
+
+    private final String hostname;
+    private final int port;
+    private final InetSocketAddress address;
+
+    private final ByteBuffer datagram;
+
+    private DatagramChannel channel;
+    private int failures;
+    private long dropped;
+    private long lost;
+
+    /**
+     * Written by one thread, read by reporter metrics
+     */
+    private volatile long bytesSent;
+
+    private volatile long connects;
+
+    /**
+     * Number of lines in the datagram
+     */
+    private int lines;
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon UDP port
+     */
+    public UdpGraphiteSender(String hostname, int port) {
+        this(hostname, port, DEFAULT_DATAGRAM_SIZE);
+    }
+
+    /**
+     * @param hostname Carbon host
+     * @param port Carbon UDP port
+     * @param datagramSize maximum size of datagram payload in bytes, MTU minus IP and UDP headers
+     */
+    public UdpGraphiteSender(String hostname, int port, int datagramSize) {
+        this(hostname, port, null, datagramSize);
+        if (hostname == null || hostname.isEmpty()) {
+            throw new IllegalArgumentException("hostname must not be null or empty");
+        }
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("port must be a valid IP port (0-65535)");
+        }
+    }
+
+    /**
+     * @param address Carbon address
+     * @param datagramSize maximum size of datagram payload in bytes, MTU minus IP and UDP headers
+     */
+    public UdpGraphiteSender(InetSocketAddress address, int datagramSize) {
+        this(null, -1, address, datagramSize);
+    }
+
+    private UdpGraphiteSender(String hostname, int port, InetSocketAddress address, int datagramSize) {
+        if (datagramSize < 1 || datagramSize > 65507) {
+            throw new IllegalArgumentException("datagramSize must be between 1 and 65507");
+        }
+        this.hostname = hostname;
+        this.port = port;
+        this.address = address;
+        this.datagram = ByteBuffer.allocateDirect(datagramSize);
+    }
+
+    @Override
+    public void connect() throws IllegalStateException, IOException {
+        if (isConnected()) {
+            throw new IllegalStateException("Already connected");
+        }
+        InetSocketAddress address = this.address;
+        if (address == null) {
+            address = new InetSocketAddress(hostname, port);
+        }
+        if (address.isUnresolved()) {
+            failures++;
+            throw new UnknownHostException(address.getHostName());
+        }
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.connect(address);
+        } catch (Throwable e) {
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            failures++;
+            throw e;
+        }
+        this.channel = channel;
+        datagram.clear();
+        lines = 0;
+        connects++;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null && channel.isOpen();
+    }
+
+    @Override
+    public void send(String name, String value, long timestamp) throws IOException {
+        final int start = datagram.position();
+        if (encode(name, value, timestamp)) {
+            lines++;
+            return;
+        }
+        // line does not fit, send previous lines and start new datagram
+        ((Buffer) datagram).position(start);
+        if (start > 0) {
+            write();
+            if (encode(name, value, timestamp)) {
+                lines++;
+                return;
+            }
+            ((Buffer) datagram).position(0);
+        }
+        dropped++;
+    }
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException {
+        final int length = path.length + 1 + valueLength + timestamp.length;
+        if (length > datagram.remaining()) {
+            // line does not fit, send previous lines and start new datagram
+            if (datagram.position() > 0) {
+                write();
+            }
+            if (length > datagram.remaining()) {
+                dropped++;
+                return;
+            }
+        }
+        datagram.put(path).put((byte) ' ').put(value, 0, valueLength).put(timestamp);
+        lines++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (datagram.position() > 0) {
+            write();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (isConnected()) {
+                flush();
+            }
+        } finally {
+            datagram.clear();
+            lines = 0;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    log.debug("Error closing channel", e);
+                }
+                channel = null;
+            }
+        }
+    }
+
+    @Override
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return number of lines dropped because they were longer than datagram size
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return number of lines in datagrams which were not sent because Carbon port was unreachable
+     */
+    public long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return bytes of sent datagrams
+     */
+    @Override
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public long getConnects() {
+        return connects;
+    }
+
+    private void write() throws IOException {
+        ((Buffer) datagram).flip();
+        try {
+            if (channel == null) {
+                throw new IOException("Not connected");
+            }
+            bytesSent += channel.write(datagram);
+            failures = 0;
+        } catch (PortUnreachableException e) {
+            // ICMP response to an earlier datagram, next write goes out again
+            lost += lines;
+            log.debug("Carbon port unreachable, {} data points lost", lines);
+        } catch (IOException e) {
+            failures++;
+            throw e;
+        } finally {
+            datagram.clear();
+            lines = 0;
+        }
+    }
+
+    /**
+     * Append plaintext line to the datagram.
+     *
+     * @return false if the line does not fit, position of the datagram is undefined then
+     */
+    private boolean encode(String name, String value, long timestamp) {
+        if (!encodeSanitized(name) || datagram.remaining() < 1) {
+            return false;
+        }
+        datagram.put((byte) ' ');
+        if (!encodeSanitized(value) || datagram.remaining() < 2 + digits(timestamp)) {
+            return false;
+        }
+        datagram.put((byte) ' ');
+        encodeLong(timestamp);
+        datagram.put((byte) '\n');
+        return true;
+    }
+
+    private boolean encodeSanitized(String s) {
+        if (s.length() > datagram.remaining()) {
+            return false;
+        }
+        final int start = datagram.position();
+        boolean whitespace = false;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c >= 0x80) {
+                ((Buffer) datagram).position(start);
+                final byte[] bytes = s.replaceAll("[\\s]+", "-").getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > datagram.remaining()) {
+                    return false;
+                }
+                datagram.put(bytes);
+                return true;
+            }
+            if (c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r') {
+                if (!whitespace) {
+                    datagram.put((byte) '-');
+                }
+                whitespace = true;
+                continue;
+            }
+            whitespace = false;
+            datagram.put((byte) c);
+        }
+        return true;
+    }
+
+    private void encodeLong(long v) {
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                final String s = Long.toString(v);
+                for (int i = 0; i < s.length(); i++) {
+                    datagram.put((byte) s.charAt(i));
+                }
+                return;
+            }
+            datagram.put((byte) '-');
+            v = -v;
+        }
+        final int end = datagram.position() + digits(v);
+        int pos = end;
+        do {
+            datagram.put(--pos, (byte) ('0' + v % 10));
+            v /= 10;
+        } while (v != 0);
+        ((Buffer) datagram).position(end);
+    }
+
+    /**
+     * @return number of characters of given number including sign
+     */
+    private static int digits(long v) {
+        if (v == Long.MIN_VALUE) {
+            return 20;
+        }
+        int digits = v < 0 ? 2 : 1;
+        for (long n = Math.abs(v); n >= 10; n /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+}
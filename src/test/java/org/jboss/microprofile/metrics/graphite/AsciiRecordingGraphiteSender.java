@@ -0,0 +1,21 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link RecordingGraphiteSender} accepting pre-encoded lines. They are recorded like other lines and counted.
+ *
+ * @author Libor Krzyzanek
+ */
+class AsciiRecordingGraphiteSender extends RecordingGraphiteSender implements AsciiGraphiteSender {
+
+    volatile int asciiLines;
+
+    @Override
+    public void send(byte[] path, byte[] value, int valueLength, byte[] timestamp) throws IOException {
+        send(new String(path, StandardCharsets.US_ASCII), new String(value, 0, valueLength, StandardCharsets.US_ASCII),
+                AsciiGraphiteSender.parseTimestamp(timestamp));
+        asciiLines++;
+    }
+}
@@ -0,0 +1,78 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Matching of metric names by {@link AttributeRules}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class AttributeRulesTest {
+
+    private final Map<String, Set<MetricAttribute>> rules = new LinkedHashMap<>();
+
+    private void rule(String pattern, MetricAttribute attribute) {
+        rules.put(pattern, EnumSet.of(attribute));
+    }
+
+    private int match(String name) {
+        return new AttributeRules(rules).match(name);
+    }
+
+    private static int mask(MetricAttribute attribute) {
+        return AttributeMask.bit(attribute);
+    }
+
+    @Test
+    public void longestPrefixWins() {
+        rule("vendor.*", MetricAttribute.COUNT);
+        rule("vendor.memory.*", MetricAttribute.MAX);
+        rule("*", MetricAttribute.MIN);
+        assertEquals(mask(MetricAttribute.MAX), match("vendor.memory.heap"));
+        assertEquals(mask(MetricAttribute.COUNT), match("vendor.memoryPool"));
+        assertEquals(mask(MetricAttribute.COUNT), match("vendor."));
+        assertEquals(mask(MetricAttribute.MIN), match("vendor"));
+        assertEquals(mask(MetricAttribute.MIN), match("base.gc.count"));
+    }
+
+    @Test
+    public void samePrefixInDeclarationOrder() {
+        rule("application.*.duration", MetricAttribute.MAX);
+        rule("application.*", MetricAttribute.COUNT);
+        rule("application.*.size", MetricAttribute.MIN);
+        assertEquals(mask(MetricAttribute.MAX), match("application.com.example.duration"));
+        assertEquals(mask(MetricAttribute.COUNT), match("application.com.example.size"));
+    }
+
+    @Test
+    public void longerPrefixWhichDoesNotMatch() {
+        rule("base.*", MetricAttribute.COUNT);
+        rule("base.memory.*Heap", MetricAttribute.MAX);
+        assertEquals(mask(MetricAttribute.MAX), match("base.memory.usedHeap"));
+        assertEquals(mask(MetricAttribute.COUNT), match("base.memory.usedNonHeap.max"));
+    }
+
+    @Test
+    public void literalPattern() {
+        rule("base.gc", MetricAttribute.COUNT);
+        rule("application.com.example.*.duration", MetricAttribute.MAX);
+        assertEquals(mask(MetricAttribute.COUNT), match("base.gc"));
+        assertEquals(AttributeRules.NO_MATCH, match("base.gc.time"));
+        assertEquals(AttributeRules.NO_MATCH, match("base.g"));
+        // dot is not a regular expression
+        assertEquals(mask(MetricAttribute.MAX), match("application.com.example.a.b.duration"));
+        assertEquals(AttributeRules.NO_MATCH, match("application.com.example.a.bXduration"));
+    }
+
+    @Test
+    public void noRules() {
+        assertEquals(AttributeRules.NO_MATCH, match("application.c"));
+    }
+}
@@ -0,0 +1,134 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Queues and backend threads of {@link FanOutGraphiteSender} with recording backends.
+ *
+ * @author Libor Krzyzanek
+ */
+public class FanOutGraphiteSenderTest {
+
+    /**
+     * Counts disconnects.
+     */
+    private static class DisconnectableRecordingGraphiteSender extends RecordingGraphiteSender implements DisconnectableGraphiteSender {
+        private volatile int disconnects;
+
+        @Override
+        public void disconnect() {
+            disconnects++;
+        }
+    }
+
+    private static void send(FanOutGraphiteSender sender, String name) {
+        sender.connect();
+        sender.send(name, "1", 1);
+        sender.close();
+    }
+
+    private static void awaitFailure(GraphiteSender sender) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (sender.getFailures() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, sender.getFailures());
+    }
+
+    @Test
+    public void sameDataPointsToAllBackends() {
+        final RecordingGraphiteSender plain = new RecordingGraphiteSender();
+        final AsciiRecordingGraphiteSender ascii = new AsciiRecordingGraphiteSender();
+        final DisconnectableRecordingGraphiteSender disconnectable = new DisconnectableRecordingGraphiteSender();
+        final FanOutGraphiteSender sender = new FanOutGraphiteSender(Arrays.<GraphiteSender>asList(plain, ascii, disconnectable));
+        sender.connect();
+        sender.send("a", "1", 1);
+        final byte[] value = "22x".getBytes(StandardCharsets.US_ASCII);
+        sender.send("b".getBytes(StandardCharsets.US_ASCII), value, 2, " 2\n".getBytes(StandardCharsets.US_ASCII));
+        // arrays are reused by the caller
+        value[0] = '3';
+        sender.close();
+        sender.disconnect();
+
+        for (RecordingGraphiteSender backend : Arrays.asList(plain, ascii, disconnectable)) {
+            assertEquals(Arrays.asList("a 1 1", "b 22 2"), backend.lines());
+            assertFalse(backend.isConnected());
+        }
+        assertEquals(1, ascii.asciiLines);
+        assertEquals(1, disconnectable.disconnects);
+        assertEquals(0, sender.getQueued());
+    }
+
+    @Test
+    public void failedBackendIsRetriedWithoutStallingOthers() throws InterruptedException {
+        final RecordingGraphiteSender healthy = new RecordingGraphiteSender();
+        final RecordingGraphiteSender failing = new RecordingGraphiteSender();
+        failing.failFlush = true;
+        final FanOutGraphiteSender sender = new FanOutGraphiteSender(Arrays.<GraphiteSender>asList(healthy, failing),
+                FanOutGraphiteSender.DEFAULT_QUEUE_CAPACITY, 10, 50, TimeUnit.MILLISECONDS);
+        send(sender, "a");
+        awaitFailure(sender);
+        assertEquals(Arrays.asList("a 1 1"), healthy.lines());
+        assertEquals(1, sender.getQueued());
+
+        failing.failFlush = false;
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (sender.getQueued() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // failed chunk is written again
+        assertEquals(Arrays.asList("a 1 1", "a 1 1"), failing.lines());
+        assertEquals(0, sender.getFailures());
+        sender.disconnect();
+    }
+
+    @Test
+    public void fullQueueDropsOldest() throws InterruptedException {
+        final RecordingGraphiteSender backend = new RecordingGraphiteSender();
+        backend.failConnect = true;
+        // long backoff keeps the failed chunk queued, disconnect ends it
+        final FanOutGraphiteSender sender = new FanOutGraphiteSender(Arrays.<GraphiteSender>asList(backend), 2, 10, 60,
+                TimeUnit.SECONDS);
+        send(sender, "a");
+        awaitFailure(sender);
+        send(sender, "b");
+        send(sender, "c");
+        assertEquals(1, sender.getDropped());
+        assertEquals(2, sender.getQueued());
+
+        backend.failConnect = false;
+        sender.disconnect();
+        assertEquals(Arrays.asList("b 1 1", "c 1 1"), backend.lines());
+        assertEquals(0, sender.getQueued());
+    }
+
+    @Test
+    public void queueIsKeptForNextConnect() throws InterruptedException {
+        final RecordingGraphiteSender backend = new RecordingGraphiteSender();
+        backend.failConnect = true;
+        final FanOutGraphiteSender sender = new FanOutGraphiteSender(Arrays.<GraphiteSender>asList(backend), 2, 10, 60,
+                TimeUnit.SECONDS);
+        send(sender, "a");
+        awaitFailure(sender);
+        // stopped backend gives up after failed attempt
+        sender.disconnect();
+        assertTrue(backend.lines().isEmpty());
+        assertEquals(1, sender.getQueued());
+
+        backend.failConnect = false;
+        sender.connect();
+        sender.close();
+        sender.disconnect();
+        assertEquals(Arrays.asList("a 1 1"), backend.lines());
+    }
+}
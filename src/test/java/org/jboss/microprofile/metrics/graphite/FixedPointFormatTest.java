@@ -0,0 +1,118 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Output of {@link FixedPointFormat} must stay identical to {@code String.format(Locale.US, "%2.2f", v)}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class FixedPointFormatTest {
+
+    private final char[] buf = new char[FixedPointFormat.MAX_LENGTH];
+
+    /**
+     * @return true if the value was formatted without fall back
+     */
+    private boolean assertFormat(double v) {
+        final int length = FixedPointFormat.format(v, buf, 0);
+        if (length < 0) {
+            return false;
+        }
+        assertTrue("Too long output of " + v, length <= FixedPointFormat.MAX_LENGTH);
+        assertEquals("Format of " + v + " (" + Double.doubleToRawLongBits(v) + ")",
+                String.format(Locale.US, "%2.2f", v), new String(buf, 0, length));
+        return true;
+    }
+
+    @Test
+    public void specialValues() {
+        assertTrue(assertFormat(Double.NaN));
+        assertTrue(assertFormat(Double.POSITIVE_INFINITY));
+        assertTrue(assertFormat(Double.NEGATIVE_INFINITY));
+        assertTrue(assertFormat(0.0));
+        assertTrue(assertFormat(-0.0));
+        assertTrue(assertFormat(Double.MIN_VALUE));
+        assertTrue(assertFormat(-Double.MIN_VALUE));
+        assertTrue(assertFormat(Double.MIN_NORMAL));
+    }
+
+    @Test
+    public void commonValues() {
+        final double[] values = {1, -1, 0.1, 0.01, 0.001, 0.004, 0.006, 0.994, 0.996, 1.5, 9.99, 9.999, 99.999,
+                123.456, -123.456, 1000000, 0.333333, 2.0 / 3, Math.PI, Math.E, 1e-10, 12345678.9};
+        for (double v : values) {
+            assertTrue("Expected formatting without fall back of " + v, assertFormat(v));
+            assertTrue("Expected formatting without fall back of " + -v, assertFormat(-v));
+        }
+    }
+
+    @Test
+    public void roundingBoundaries() {
+        for (long cents = 0; cents < 20000; cents++) {
+            for (int digit = 0; digit < 10; digit++) {
+                final double v = (cents * 10 + digit) / 1000.0;
+                assertFormat(v);
+                assertFormat(-v);
+                assertFormat(Math.nextUp(v));
+                assertFormat(Math.nextDown(v));
+            }
+        }
+        // boundaries near the largest handled value
+        for (double v : new double[]{1e12 + 0.005, 1e12 + 0.015, 9999999999999.995, 9999999999999.985, 4503599627370.495}) {
+            assertFormat(v);
+            assertFormat(Math.nextUp(v));
+            assertFormat(Math.nextDown(v));
+        }
+    }
+
+    @Test
+    public void largeValuesFallBack() {
+        assertFormat(Math.nextDown(1e13));
+        for (double v : new double[]{1e13, -1e13, 1.5e13, 1e15, 1e20, 1e300, Double.MAX_VALUE, -Double.MAX_VALUE}) {
+            assertEquals("Expected fall back for " + v, -1, FixedPointFormat.format(v, buf, 0));
+        }
+    }
+
+    @Test
+    public void offset() {
+        final char[] buf = new char[FixedPointFormat.MAX_LENGTH + 3];
+        final int length = FixedPointFormat.format(-12.345678, buf, 3);
+        assertEquals("-12.35", new String(buf, 3, length));
+    }
+
+    @Test
+    public void randomValues() {
+        final Random random = new Random(20190611);
+        int formatted = 0;
+        for (int i = 0; i < 1000000; i++) {
+            final double v;
+            switch (i % 4) {
+                case 0:
+                    // any bit pattern
+                    v = Double.longBitsToDouble(random.nextLong());
+                    break;
+                case 1:
+                    v = random.nextDouble() * Math.pow(10, random.nextInt(16) - 3);
+                    break;
+                case 2:
+                    // decimal values with few fraction digits, typical for gauges
+                    v = (random.nextInt(2000000) - 1000000) / Math.pow(10, random.nextInt(5));
+                    break;
+                default:
+                    v = random.nextGaussian() * 1000;
+                    break;
+            }
+            if (assertFormat(v)) {
+                formatted++;
+            }
+        }
+        assertTrue("Too many values fell back to String.format: " + (1000000 - formatted), formatted > 700000);
+    }
+}
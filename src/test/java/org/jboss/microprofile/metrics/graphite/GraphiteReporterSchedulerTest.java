@@ -0,0 +1,63 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.Test;
+
+import io.smallrye.metrics.MetricsRegistryImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Alignment of reports scheduled by {@link GraphiteReporter#start(long, TimeUnit)} and timestamp of the last report.
+ *
+ * @author Libor Krzyzanek
+ */
+public class GraphiteReporterSchedulerTest {
+
+    private static List<Long> timestamps(List<String> lines) {
+        final List<Long> timestamps = new ArrayList<>();
+        for (String line : lines) {
+            timestamps.add(Long.parseLong(line.substring(line.lastIndexOf(' ') + 1)));
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void reportsAreAlignedAndStopReportsNextBoundary() throws InterruptedException {
+        final MetricRegistry registry = new MetricsRegistryImpl();
+        registry.counter("c");
+        final RecordingGraphiteSender sender = new RecordingGraphiteSender();
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .registry(MetricRegistry.Type.APPLICATION, registry)
+                .build(sender);
+        reporter.start(1, TimeUnit.SECONDS);
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (sender.lines().size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // stop in the middle of a period, far from both boundaries
+        Thread.sleep((1500 - System.currentTimeMillis() % 1000) % 1000);
+        final int scheduled = sender.lines().size();
+        final long stopped = System.currentTimeMillis();
+        reporter.stop();
+
+        final List<Long> timestamps = timestamps(sender.lines());
+        final List<Long> sendTimes = sender.sendTimes();
+        assertEquals("one line per report: " + sender.lines(), scheduled + 1, timestamps.size());
+        for (int i = 0; i < scheduled; i++) {
+            // sent at the boundary, executor may fire a bit early as it does not follow wall clock
+            final long boundary = timestamps.get(i) * 1000;
+            assertTrue(sendTimes.get(i) - boundary > -100);
+            assertTrue(sendTimes.get(i) - boundary < 500);
+        }
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertEquals("each boundary once: " + timestamps, timestamps.get(i - 1) + 1, (long) timestamps.get(i));
+        }
+        assertEquals(stopped / 1000 + 1, (long) timestamps.get(scheduled));
+    }
+}
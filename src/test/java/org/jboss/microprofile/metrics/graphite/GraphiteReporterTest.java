@@ -0,0 +1,241 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricFilter;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.junit.Test;
+
+import io.smallrye.metrics.MetricsRegistryImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Data points reported by {@link GraphiteReporter} to {@link RecordingGraphiteSender}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class GraphiteReporterTest {
+
+    private final MetricRegistry registry = new MetricsRegistryImpl();
+
+    private final RecordingGraphiteSender sender = new RecordingGraphiteSender();
+
+    private List<String> report(GraphiteReporter reporter, long timestamp) {
+        sender.clear();
+        final Map<MetricRegistry.Type, ReportResult> results =
+                reporter.reportRegistries(Collections.singletonMap(MetricRegistry.Type.APPLICATION, registry), timestamp);
+        assertEquals(1, results.size());
+        return sender.lines();
+    }
+
+    @Test
+    public void onlyChangedValues() {
+        final Counter counter = registry.counter("c");
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .onlyChangedValues(10, TimeUnit.MINUTES)
+                .build(sender);
+        assertEquals(Collections.singletonList("application.c.count 0 1000"), report(reporter, 1000));
+        assertEquals(Collections.emptyList(), report(reporter, 1060));
+        counter.inc();
+        assertEquals(Collections.singletonList("application.c.count 1 1120"), report(reporter, 1120));
+        assertEquals(Collections.emptyList(), report(reporter, 1180));
+        // heartbeat is counted from the last sent value
+        assertEquals(Collections.emptyList(), report(reporter, 1719));
+        assertEquals(Collections.singletonList("application.c.count 1 1720"), report(reporter, 1720));
+    }
+
+    @Test
+    public void onlyChangedValuesCommittedAfterSuccessfulSend() {
+        final Counter counter = registry.counter("c");
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .onlyChangedValues(10, TimeUnit.MINUTES)
+                .build(sender);
+        report(reporter, 1000);
+        counter.inc();
+        sender.failFlush = true;
+        assertEquals(Collections.singletonList("application.c.count 1 1060"), report(reporter, 1060));
+        // value was lost with the failed flush, so it is sent again although it did not change
+        sender.failFlush = false;
+        assertEquals(Collections.singletonList("application.c.count 1 1120"), report(reporter, 1120));
+        assertEquals(Collections.emptyList(), report(reporter, 1180));
+    }
+
+    @Test
+    public void legacyConstructorWithoutDisabledAttributes() {
+        registry.meter("m").mark();
+        final GraphiteReporter reporter = new GraphiteReporter(sender, null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+                null, MetricFilter.ALL) {
+        };
+        assertEquals(5, report(reporter, 1000).size());
+    }
+
+    @Test
+    public void overriddenDisabledAttributes() {
+        registry.meter("m").mark();
+        final Set<MetricAttribute> disabled = EnumSet.of(MetricAttribute.M1_RATE, MetricAttribute.M5_RATE,
+                MetricAttribute.M15_RATE, MetricAttribute.MEAN_RATE);
+        final GraphiteReporter reporter = new GraphiteReporter(sender, null, TimeUnit.SECONDS, TimeUnit.MILLISECONDS,
+                Collections.emptySet(), MetricFilter.ALL) {
+            @Override
+            protected Set<MetricAttribute> getDisabledMetricAttributes() {
+                return disabled;
+            }
+        };
+        assertEquals(Collections.singletonList("application.m.count 1 1000"), report(reporter, 1000));
+        // consulted on each report
+        disabled.remove(MetricAttribute.MEAN_RATE);
+        assertEquals(2, report(reporter, 1060).size());
+    }
+
+    private static boolean hasPath(List<String> lines, String path) {
+        for (String line : lines) {
+            if (line.startsWith(path + " ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void disabledAttributesPerType() {
+        registry.histogram("h").update(1);
+        registry.timer("t").update(1, TimeUnit.MILLISECONDS);
+        registry.meter("m").mark();
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .disabledMetricAttributes(EnumSet.of(MetricAttribute.M15_RATE))
+                .disabledMetricAttributes(MetricType.HISTOGRAM, EnumSet.of(MetricAttribute.P999))
+                .disabledMetricAttributes(MetricType.TIMER, EnumSet.of(MetricAttribute.MEAN_RATE))
+                .build(sender);
+        final List<String> lines = report(reporter, 1000);
+        assertFalse(hasPath(lines, "application.h.p999"));
+        assertTrue(hasPath(lines, "application.h.p99"));
+        assertTrue(hasPath(lines, "application.t.p999"));
+        assertFalse(hasPath(lines, "application.t.mean_rate"));
+        assertTrue(hasPath(lines, "application.m.mean_rate"));
+        assertFalse(hasPath(lines, "application.t.m15_rate"));
+        assertFalse(hasPath(lines, "application.m.m15_rate"));
+        // histogram 11 - 1, timer 15 - 2, meter 5 - 1
+        assertEquals(10 + 13 + 4, lines.size());
+    }
+
+    @Test
+    public void metricAttributesReplaceDisabledAttributes() {
+        registry.timer("com.example.a.duration").update(1, TimeUnit.MILLISECONDS);
+        registry.timer("com.example.b").update(1, TimeUnit.MILLISECONDS);
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .disabledMetricAttributes(MetricType.TIMER, EnumSet.allOf(MetricAttribute.class))
+                .metricAttributes("application.com.example.*.duration", EnumSet.of(MetricAttribute.COUNT, MetricAttribute.P99))
+                .build(sender);
+        final List<String> lines = report(reporter, 1000);
+        assertTrue(hasPath(lines, "application.com.example.a.duration.count"));
+        assertTrue(hasPath(lines, "application.com.example.a.duration.p99"));
+        assertEquals(2, lines.size());
+    }
+
+    @Test
+    public void quantilesReplaceFixedPercentiles() {
+        final Histogram histogram = registry.histogram("h");
+        for (int i = 1; i <= 100; i++) {
+            histogram.update(i);
+        }
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .quantiles(0.5, 0.9, 0.9999)
+                .build(sender);
+        final List<String> lines = report(reporter, 1000);
+        assertTrue(hasPath(lines, "application.h.p50"));
+        assertTrue(hasPath(lines, "application.h.p90"));
+        assertTrue(hasPath(lines, "application.h.p9999"));
+        assertFalse(hasPath(lines, "application.h.p75"));
+        assertFalse(hasPath(lines, "application.h.p999"));
+        // count, max, mean, min, stddev and quantiles
+        assertEquals(5 + 3, lines.size());
+    }
+
+    @Test
+    public void manyQuantiles() {
+        registry.histogram("h").update(1);
+        // 0.5, 0.501, ..., 1
+        final double[] quantiles = new double[501];
+        for (int i = 0; i < quantiles.length; i++) {
+            quantiles[i] = (500 + i) / 1000.0;
+        }
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .quantiles(quantiles)
+                .build(sender);
+        final List<String> lines = report(reporter, 1000);
+        assertTrue(hasPath(lines, "application.h.p50"));
+        assertTrue(hasPath(lines, "application.h.p501"));
+        assertTrue(hasPath(lines, "application.h.p999"));
+        assertTrue(hasPath(lines, "application.h.p100"));
+        assertEquals(5 + quantiles.length, lines.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantilesMustBeAscending() {
+        new GraphiteReporter.Builder().quantiles(0.9, 0.5);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quantilesWithSameName() {
+        // both are named p11
+        new GraphiteReporter.Builder().quantiles(0.011, 0.11);
+    }
+
+    private Counter taggedCounter(String name, String... tags) {
+        final Metadata metadata = new Metadata(name, MetricType.COUNTER);
+        final HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < tags.length; i += 2) {
+            map.put(tags[i], tags[i + 1]);
+        }
+        metadata.setTags(map);
+        return registry.counter(metadata);
+    }
+
+    @Test
+    public void taggedSeries() {
+        taggedCounter("requests", "zone", "b", "host", "a");
+        registry.counter("plain");
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .taggedSeries()
+                .build(sender);
+        final List<String> lines = report(reporter, 1000);
+        assertTrue(lines.toString(), lines.contains("application.requests.count;host=a;zone=b 0 1000"));
+        assertTrue(lines.toString(), lines.contains("application.plain.count 0 1000"));
+
+        // tags are rendered again for metric registered again
+        registry.remove("requests");
+        taggedCounter("requests", "host", "c");
+        assertTrue(report(reporter, 1060).contains("application.requests.count;host=c 0 1060"));
+    }
+
+    @Test
+    public void tagEscaping() {
+        // name must not contain ;!^= and value must not contain ; or start with ~
+        taggedCounter("requests", "a;b", "1", "c!d^e=f", "2", "g", "~x;y=z~", "empty", "", "", "no name");
+        final GraphiteReporter reporter = new GraphiteReporter.Builder()
+                .taggedSeries()
+                .build(sender);
+        assertEquals(Collections.singletonList("application.requests.count;a_b=1;c_d_e_f=2;g=_x_y=z~ 0 1000"),
+                report(reporter, 1000));
+    }
+
+    @Test
+    public void tagsOnlyWithTaggedSeries() {
+        taggedCounter("requests", "host", "a");
+        final GraphiteReporter reporter = new GraphiteReporter.Builder().build(sender);
+        assertEquals(Collections.singletonList("application.requests.count 0 1000"), report(reporter, 1000));
+    }
+}
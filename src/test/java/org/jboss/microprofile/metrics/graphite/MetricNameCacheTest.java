@@ -0,0 +1,36 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Names of quantile attributes generated by {@link MetricNameCache}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class MetricNameCacheTest {
+
+    @Test
+    public void quantileCode() {
+        assertEquals("p0", MetricNameCache.quantileCode(0));
+        assertEquals("p5", MetricNameCache.quantileCode(0.05));
+        assertEquals("p05", MetricNameCache.quantileCode(0.005));
+        assertEquals("p50", MetricNameCache.quantileCode(0.5));
+        assertEquals("p90", MetricNameCache.quantileCode(0.9));
+        assertEquals("p99", MetricNameCache.quantileCode(0.99));
+        assertEquals("p999", MetricNameCache.quantileCode(0.999));
+        assertEquals("p9999", MetricNameCache.quantileCode(0.9999));
+        assertEquals("p100", MetricNameCache.quantileCode(1));
+    }
+
+    @Test
+    public void quantileCodesMatchFixedPercentiles() {
+        assertEquals(MetricAttribute.P50.getCode(), MetricNameCache.quantileCode(0.5));
+        assertEquals(MetricAttribute.P75.getCode(), MetricNameCache.quantileCode(0.75));
+        assertEquals(MetricAttribute.P95.getCode(), MetricNameCache.quantileCode(0.95));
+        assertEquals(MetricAttribute.P98.getCode(), MetricNameCache.quantileCode(0.98));
+        assertEquals(MetricAttribute.P99.getCode(), MetricNameCache.quantileCode(0.99));
+        assertEquals(MetricAttribute.P999.getCode(), MetricNameCache.quantileCode(0.999));
+    }
+}
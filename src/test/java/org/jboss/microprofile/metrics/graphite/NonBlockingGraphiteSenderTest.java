@@ -0,0 +1,346 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Ring buffer of {@link NonBlockingGraphiteSender} against local {@link ServerSocket}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class NonBlockingGraphiteSenderTest {
+
+    /**
+     * Length of lines sent by {@link #send(NonBlockingGraphiteSender, int)}, not a divisor of socket buffer sizes
+     */
+    private static final int LINE_LENGTH = 13;
+
+    private static final Pattern LINE = Pattern.compile("m(\\d{7}) 1 1");
+
+    private ServerSocket server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new ServerSocket();
+        // small receive window makes the sender block early
+        server.setReceiveBufferSize(4096);
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.setSoTimeout(10000);
+    }
+
+    @After
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+    private NonBlockingGraphiteSender sender(int capacity, NonBlockingGraphiteSender.OverflowPolicy overflowPolicy) {
+        return new NonBlockingGraphiteSender((InetSocketAddress) server.getLocalSocketAddress(), capacity, overflowPolicy,
+                10, TimeUnit.SECONDS);
+    }
+
+    private static void send(NonBlockingGraphiteSender sender, int i) throws IOException {
+        sender.send(String.format("m%07d", i), "1", 1);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        final List<Integer> range = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    /**
+     * Reads everything the peer sends until it closes the connection.
+     */
+    private static class Reader extends Thread {
+        private final Socket socket;
+        private final ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+        Reader(Socket socket) {
+            this.socket = socket;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            final byte[] buf = new byte[65536];
+            try (InputStream in = socket.getInputStream()) {
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    synchronized (data) {
+                        data.write(buf, 0, n);
+                    }
+                }
+            } catch (IOException e) {
+                // connection reset
+            }
+        }
+
+        String await() throws InterruptedException {
+            join(10000);
+            assertFalse("Sender did not close connection", isAlive());
+            return new String(data.toByteArray(), StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * @return indexes of received lines, fails on malformed line
+     */
+    private static List<Integer> parse(String data) {
+        final List<Integer> indexes = new ArrayList<>();
+        if (data.isEmpty()) {
+            return indexes;
+        }
+        assertTrue("Last line is not complete", data.endsWith("\n"));
+        for (String line : data.split("\n")) {
+            final Matcher matcher = LINE.matcher(line);
+            assertTrue("Malformed line '" + line + "'", matcher.matches());
+            indexes.add(Integer.parseInt(matcher.group(1)));
+        }
+        return indexes;
+    }
+
+    /**
+     * Send lines until the socket does not accept more and the first buffered line was written only partially.
+     *
+     * @param consumed bytes which had to be read by the peer to get there
+     * @return number of lines sent
+     */
+    private static int fillUntilPartialWrite(NonBlockingGraphiteSender sender, Socket peer, ByteArrayOutputStream consumed)
+            throws IOException {
+        final byte[] buf = new byte[65536];
+        int sent = 0;
+        for (int attempt = 0; attempt < 100; attempt++) {
+            // send until socket stops accepting data
+            do {
+                for (int i = 0; i < 100; i++) {
+                    send(sender, sent++);
+                }
+                sender.flush();
+            } while (sender.getBuffered() == 0);
+            if (sender.getBuffered() % LINE_LENGTH != 0) {
+                return sent;
+            }
+            // socket stopped on line boundary, let some bytes through and try again
+            final int n = peer.getInputStream().read(buf);
+            consumed.write(buf, 0, n);
+        }
+        throw new AssertionError("Socket never stopped in the middle of a line");
+    }
+
+    @Test
+    public void dropNewest() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(5 * LINE_LENGTH + 3, NonBlockingGraphiteSender.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 8; i++) {
+            send(sender, i);
+        }
+        assertEquals(3, sender.getDropped());
+        assertEquals(5 * LINE_LENGTH, sender.getBuffered());
+
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        sender.flush();
+        sender.close();
+        assertEquals(range(0, 5), parse(reader.await()));
+        assertEquals(0, sender.getBuffered());
+    }
+
+    @Test
+    public void dropOldest() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(5 * LINE_LENGTH + 3, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 8; i++) {
+            send(sender, i);
+        }
+        assertEquals(3, sender.getDropped());
+        assertEquals(5 * LINE_LENGTH, sender.getBuffered());
+
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        sender.close();
+        assertEquals(range(3, 8), parse(reader.await()));
+    }
+
+    @Test
+    public void dropOldestLinesOfDifferentLength() throws Exception {
+        final int capacity = 50;
+        final NonBlockingGraphiteSender sender = sender(capacity, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        final List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            final String name = "m" + i + (i % 3 == 0 ? ".long" : "");
+            sender.send(name, "1", 1);
+            lines.add(name + " 1 1\n");
+        }
+        // longest suffix which fits
+        final StringBuilder expected = new StringBuilder();
+        for (int i = lines.size() - 1; i >= 0 && expected.length() + lines.get(i).length() <= capacity; i--) {
+            expected.insert(0, lines.get(i));
+        }
+        assertEquals(expected.length(), sender.getBuffered());
+        assertEquals(lines.size() - expected.toString().split("\n").length, sender.getDropped());
+
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        sender.close();
+        assertEquals(expected.toString(), reader.await());
+    }
+
+    @Test
+    public void wrapAround() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(4 * LINE_LENGTH + 5, NonBlockingGraphiteSender.OverflowPolicy.DROP_NEWEST);
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        int sent = 0;
+        for (int round = 0; round < 1000; round++) {
+            // 1 to 4 lines, so the tail wraps at every position of the ring
+            for (int i = 0; i <= round % 4; i++) {
+                send(sender, sent++);
+            }
+            sender.flush();
+            for (int wait = 0; sender.getBuffered() > 0 && wait < 1000; wait++) {
+                Thread.sleep(1);
+                sender.flush();
+            }
+            assertEquals(0, sender.getBuffered());
+        }
+        sender.close();
+        assertEquals(range(0, sent), parse(reader.await()));
+        assertEquals(0, sender.getDropped());
+    }
+
+    @Test
+    public void encodedLinesWrapAround() throws Exception {
+        // lines of 21 and 15 bytes in ring of 37 bytes start at every position of the ring
+        final NonBlockingGraphiteSender sender = sender(37, NonBlockingGraphiteSender.OverflowPolicy.DROP_NEWEST);
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        final byte[] path = "d".getBytes(StandardCharsets.US_ASCII);
+        final byte[] value = "2".getBytes(StandardCharsets.US_ASCII);
+        final byte[] timestamp = " 1500000000\n".getBytes(StandardCharsets.US_ASCII);
+        final StringBuilder expected = new StringBuilder();
+        for (int round = 0; round < 100; round++) {
+            sender.send("a b\t c", "1.5", 1500000000);
+            sender.send(path, value, 1, timestamp);
+            expected.append("a-b-c 1.5 1500000000\nd 2 1500000000\n");
+            sender.flush();
+            for (int wait = 0; sender.getBuffered() > 0 && wait < 1000; wait++) {
+                Thread.sleep(1);
+                sender.flush();
+            }
+            assertEquals(0, sender.getBuffered());
+        }
+        sender.close();
+        assertEquals(expected.toString(), reader.await());
+        assertEquals(0, sender.getDropped());
+    }
+
+    @Test
+    public void lineLongerThanCapacityIsDropped() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(LINE_LENGTH - 1, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        send(sender, 0);
+        assertEquals(1, sender.getDropped());
+        assertEquals(0, sender.getBuffered());
+    }
+
+    @Test
+    public void connectionPerReportDeliversLines() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(1024, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        int sent = 0;
+        for (int report = 0; report < 3; report++) {
+            sender.connect();
+            final Reader reader = new Reader(server.accept());
+            final int from = sent;
+            for (int i = 0; i < 10; i++) {
+                send(sender, sent++);
+            }
+            sender.flush();
+            sender.close();
+            assertEquals(range(from, sent), parse(reader.await()));
+        }
+        assertEquals(0, sender.getBuffered());
+    }
+
+    @Test
+    public void dropOldestKeepsPartiallyWrittenLine() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(64 * 1024, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        sender.connect();
+        final Socket peer = server.accept();
+        final ByteArrayOutputStream consumed = new ByteArrayOutputStream();
+        int sent = fillUntilPartialWrite(sender, peer, consumed);
+        final long dropped = sender.getDropped();
+
+        // overflow the ring, partially written line must stay at its head
+        while (sender.getDropped() == dropped && sent < 10000000) {
+            send(sender, sent++);
+        }
+        assertTrue(sender.getDropped() > dropped);
+        for (int i = 0; i < 3 * 64 * 1024 / LINE_LENGTH; i++) {
+            send(sender, sent++);
+        }
+
+        final Reader reader = new Reader(peer);
+        sender.close();
+        final List<Integer> received = parse(new String(consumed.toByteArray(), StandardCharsets.US_ASCII) + reader.await());
+        for (int i = 1; i < received.size(); i++) {
+            assertTrue("Lines out of order", received.get(i) > received.get(i - 1));
+        }
+        assertEquals(sent - 1, (int) received.get(received.size() - 1));
+        assertEquals(sent, received.size() + sender.getDropped());
+    }
+
+    @Test
+    public void reconnectAfterPartialWrite() throws Exception {
+        final NonBlockingGraphiteSender sender = sender(64 * 1024, NonBlockingGraphiteSender.OverflowPolicy.DROP_OLDEST);
+        sender.connect();
+        final Socket peer = server.accept();
+        final int sent = fillUntilPartialWrite(sender, peer, new ByteArrayOutputStream());
+        final long dropped = sender.getDropped();
+
+        // reset connection while the first buffered line is written only partially
+        peer.setSoLinger(true, 0);
+        peer.close();
+        try {
+            for (int i = 0; i < 100; i++) {
+                sender.flush();
+                Thread.sleep(10);
+            }
+            fail("Write to reset connection did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(sender.isConnected());
+        // rest of partially written line is dropped, complete lines stay buffered
+        assertEquals(dropped + 1, sender.getDropped());
+        assertEquals(0, sender.getBuffered() % LINE_LENGTH);
+        assertNotEquals(0, sender.getBuffered());
+
+        sender.connect();
+        final Reader reader = new Reader(server.accept());
+        sender.close();
+        final List<Integer> received = parse(reader.await());
+        assertEquals(range(sent - received.size(), sent), received);
+        assertEquals(0, sender.getBuffered());
+    }
+}
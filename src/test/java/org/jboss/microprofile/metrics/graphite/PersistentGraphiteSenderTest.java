@@ -0,0 +1,122 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.codahale.metrics.graphite.Graphite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reuse of connection by {@link PersistentGraphiteSender} against local {@link ServerSocket}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class PersistentGraphiteSenderTest {
+
+    private ServerSocket server;
+
+    private PersistentGraphiteSender sender;
+
+    @Before
+    public void start() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(10000);
+        final InetSocketAddress address = (InetSocketAddress) server.getLocalSocketAddress();
+        sender = new PersistentGraphiteSender(factory -> new Graphite(address, factory), 1, TimeUnit.MINUTES);
+    }
+
+    @After
+    public void stop() throws IOException {
+        sender.disconnect();
+        server.close();
+    }
+
+    private void report(String name) throws IOException {
+        sender.connect();
+        sender.send(name, "1", 1);
+        sender.flush();
+        sender.close();
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        socket.setSoTimeout(10000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void reuseHealthyConnection() throws IOException {
+        report("a");
+        try (Socket socket = server.accept()) {
+            final BufferedReader in = reader(socket);
+            assertEquals("a 1 1", in.readLine());
+            assertTrue(sender.isConnected());
+
+            report("b");
+            assertEquals("b 1 1", in.readLine());
+
+            sender.disconnect();
+            assertNull(in.readLine());
+        }
+    }
+
+    private static void sendAscii(PersistentGraphiteSender sender) throws IOException {
+        sender.connect();
+        sender.send("a".getBytes(StandardCharsets.US_ASCII), "1".getBytes(StandardCharsets.US_ASCII), 1,
+                " 1500000000\n".getBytes(StandardCharsets.US_ASCII));
+        sender.flush();
+        sender.close();
+    }
+
+    @Test
+    public void asciiPassedToAsciiDelegate() throws IOException {
+        final AsciiRecordingGraphiteSender delegate = new AsciiRecordingGraphiteSender();
+        final PersistentGraphiteSender sender = new PersistentGraphiteSender(delegate, 1, TimeUnit.MINUTES);
+        assertTrue(sender.isAscii());
+        sendAscii(sender);
+        assertEquals(1, delegate.asciiLines);
+        assertEquals(Collections.singletonList("a 1 1500000000"), delegate.lines());
+    }
+
+    @Test
+    public void asciiDecodedForOtherDelegates() throws IOException {
+        final RecordingGraphiteSender delegate = new RecordingGraphiteSender();
+        final PersistentGraphiteSender sender = new PersistentGraphiteSender(delegate, 1, TimeUnit.MINUTES);
+        // reporter sends strings to such sender
+        assertFalse(sender.isAscii());
+        sendAscii(sender);
+        assertEquals(Collections.singletonList("a 1 1500000000"), delegate.lines());
+    }
+
+    @Test
+    public void reconnectWhenClosedByPeer() throws IOException, InterruptedException {
+        report("a");
+        try (Socket socket = server.accept()) {
+            assertEquals("a 1 1", reader(socket).readLine());
+        }
+        // let the end of stream arrive
+        Thread.sleep(100);
+        assertFalse(sender.isConnected());
+
+        // without probe the line is written to the dead connection and lost
+        report("b");
+        try (Socket socket = server.accept()) {
+            assertEquals("b 1 1", reader(socket).readLine());
+        }
+    }
+}
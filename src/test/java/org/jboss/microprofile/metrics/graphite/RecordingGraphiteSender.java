@@ -0,0 +1,93 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+/**
+ * Records sent data points as plaintext lines without trailing new line.
+ * Connect and flush fail while {@link #failConnect} and {@link #failFlush} are set,
+ * send fails once {@link #sendsBeforeFailure} drops to zero.
+ *
+ * @author Libor Krzyzanek
+ */
+class RecordingGraphiteSender implements GraphiteSender {
+
+    private final List<String> lines = new ArrayList<>();
+
+    private final List<Long> sendTimes = new ArrayList<>();
+
+    volatile boolean failConnect;
+
+    volatile boolean failFlush;
+
+    /**
+     * Number of sends which succeed before sends start to fail, negative for no failure
+     */
+    volatile int sendsBeforeFailure = -1;
+
+    private boolean connected;
+
+    @Override
+    public synchronized void connect() throws IOException {
+        if (failConnect) {
+            throw new IOException("Connect failed");
+        }
+        connected = true;
+    }
+
+    @Override
+    public synchronized void send(String name, String value, long timestamp) throws IOException {
+        if (sendsBeforeFailure == 0) {
+            throw new IOException("Send failed");
+        }
+        if (sendsBeforeFailure > 0) {
+            sendsBeforeFailure--;
+        }
+        lines.add(name + " " + value + " " + timestamp);
+        sendTimes.add(System.currentTimeMillis());
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (failFlush) {
+            throw new IOException("Flush failed");
+        }
+    }
+
+    @Override
+    public synchronized boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public synchronized void close() {
+        connected = false;
+    }
+
+    @Override
+    public int getFailures() {
+        return 0;
+    }
+
+    /**
+     * @return copy of recorded lines
+     */
+    synchronized List<String> lines() {
+        return new ArrayList<>(lines);
+    }
+
+    /**
+     * @return wall clock time in milliseconds when each line was sent
+     */
+    synchronized List<Long> sendTimes() {
+        return new ArrayList<>(sendTimes);
+    }
+
+    synchronized void clear() {
+        lines.clear();
+        sendTimes.clear();
+    }
+}
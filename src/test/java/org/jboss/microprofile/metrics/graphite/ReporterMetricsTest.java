@@ -0,0 +1,88 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.junit.Test;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+import io.smallrye.metrics.MetricsRegistryImpl;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Metrics of {@link GraphiteReporter} itself, see {@link GraphiteReporter.Builder#selfMetrics(MetricRegistry)}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class ReporterMetricsTest {
+
+    private final MetricRegistry registry = new MetricsRegistryImpl();
+
+    private final MetricRegistry selfRegistry = new MetricsRegistryImpl();
+
+    private GraphiteReporter reporter(GraphiteSender sender) {
+        return new GraphiteReporter.Builder()
+                .selfMetrics(selfRegistry)
+                .build(sender);
+    }
+
+    private void report(GraphiteReporter reporter, long timestamp) {
+        reporter.reportRegistries(Collections.singletonMap(MetricRegistry.Type.APPLICATION, registry), timestamp);
+    }
+
+    private long connects() {
+        return selfRegistry.getTimers().get(ReporterMetrics.PREFIX + ".connect").getCount();
+    }
+
+    private long bytes() {
+        return selfRegistry.getCounters().get(ReporterMetrics.PREFIX + ".application.bytes").getCount();
+    }
+
+    @Test
+    public void connectLatencyOfEveryConnect() {
+        registry.counter("c");
+        final GraphiteReporter reporter = reporter(new RecordingGraphiteSender());
+        report(reporter, 1000);
+        report(reporter, 1060);
+        assertEquals(2, connects());
+        // length of plaintext line "application.c.count 0 1000\n"
+        assertEquals(2 * 27, bytes());
+    }
+
+    @Test
+    public void connectLatencyOnlyForOpenedConnections() throws IOException {
+        registry.counter("c");
+        final PersistentGraphiteSender sender = new PersistentGraphiteSender(new RecordingGraphiteSender(), 1, TimeUnit.MINUTES);
+        final GraphiteReporter reporter = reporter(sender);
+        report(reporter, 1000);
+        report(reporter, 1060);
+        assertEquals(1, connects());
+
+        sender.disconnect();
+        report(reporter, 1120);
+        assertEquals(2, connects());
+    }
+
+    @Test
+    public void bytesCountedBySender() throws IOException {
+        registry.counter("c");
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            final PickleGraphiteSender sender = new PickleGraphiteSender((InetSocketAddress) server.getLocalSocketAddress(),
+                    SocketFactory.getDefault(), PickleGraphiteSender.DEFAULT_BATCH_SIZE);
+            report(reporter(sender), 1000);
+            // length header, protocol, list, name, timestamp, value, tuples, appends and stop
+            assertEquals(4 + 4 + (5 + "application.c.count".length()) + 5 + (5 + 1) + 2 + 2, bytes());
+            assertEquals(bytes(), sender.getBytesSent());
+            assertEquals(1, connects());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.codahale.metrics.graphite.GraphiteSender;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Routing of {@link ShardedGraphiteSender} must match {@code ConsistentHashRing.get_node} of carbon-relay
+ * with {@code carbon_ch} hash type. Expected ring positions and nodes were computed by carbon.hashing
+ * for {@code DESTINATIONS = 10.0.2.1:2004, 10.0.2.2:2004, 10.0.2.3:2004:a} and 100 replicas.
+ *
+ * @author Libor Krzyzanek
+ */
+public class ShardedGraphiteSenderTest {
+
+    private static final String[] DESTINATIONS = {"10.0.2.1:2004", "10.0.2.2:2004", "10.0.2.3:2004:a"};
+
+    /**
+     * Ring keys of destinations, i.e. Python representation of (server, instance) tuple
+     */
+    private static final String[] NODE_KEYS = {"('10.0.2.1', None)", "('10.0.2.2', None)", "('10.0.2.3', 'a')"};
+
+    /**
+     * Records names of sent data points.
+     */
+    private static class RecordingSender implements GraphiteSender {
+        private final List<String> names = new ArrayList<>();
+        private boolean connected;
+
+        @Override
+        public void connect() {
+            connected = true;
+        }
+
+        @Override
+        public void send(String name, String value, long timestamp) {
+            names.add(name);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public void close() {
+            connected = false;
+        }
+
+        @Override
+        public int getFailures() {
+            return 0;
+        }
+    }
+
+    private static Map<String, GraphiteSender> shards(GraphiteSender... senders) {
+        final Map<String, GraphiteSender> shards = new LinkedHashMap<>();
+        for (int i = 0; i < DESTINATIONS.length; i++) {
+            shards.put(DESTINATIONS[i], senders.length > 0 ? senders[i] : new RecordingSender());
+        }
+        return shards;
+    }
+
+    @Test
+    public void getNode() {
+        final ShardedGraphiteSender sender = new ShardedGraphiteSender(shards());
+        // path, ring position, node
+        assertEquals(2, sender.shard("jvm.memory.heap.used")); // 57220
+        assertEquals(1, sender.shard("base.gc.count;name=G1")); // 9583
+        assertEquals(2, sender.shard("application.requests.count")); // 37416
+        assertEquals(1, sender.shard("vendor.cpu.load")); // 58737
+        assertEquals(2, sender.shard("servers.web01.cpu")); // 51783
+        assertEquals(2, sender.shard("a")); // 3265
+        assertEquals(1, sender.shard("")); // 54301
+    }
+
+    @Test
+    public void replicaKeysHitOwnPositions() {
+        final ShardedGraphiteSender sender = new ShardedGraphiteSender(shards());
+        // ('10.0.2.1', None):0 is at 756 and ('10.0.2.3', 'a'):99 at 24125
+        assertEquals(0, sender.shard(NODE_KEYS[0] + ":0"));
+        assertEquals(2, sender.shard(NODE_KEYS[2] + ":99"));
+        for (int node = 0; node < NODE_KEYS.length; node++) {
+            for (int i = 0; i < ShardedGraphiteSender.DEFAULT_REPLICAS; i++) {
+                final String key = NODE_KEYS[node] + ":" + i;
+                // the only replica moved by collision, see positionCollision()
+                final int expected = key.equals("('10.0.2.2', None):9") ? 0 : node;
+                assertEquals(key, expected, sender.shard(key));
+            }
+        }
+    }
+
+    @Test
+    public void positionCollision() {
+        // ('10.0.2.1', None):60 and ('10.0.2.2', None):9 are both at 62906, the later added moves to 62907,
+        // next entry is ('10.0.2.1', None) at 63164
+        final ShardedGraphiteSender sender = new ShardedGraphiteSender(shards());
+        assertEquals(0, sender.shard("servers.host42431.cpu.total")); // 62906
+        assertEquals(1, sender.shard("servers.host42844.cpu.total")); // 62907
+        assertEquals(0, sender.shard("('10.0.2.2', None):9")); // 62906, taken by the first added
+    }
+
+    @Test
+    public void wrapAround() {
+        // first entry is ('10.0.2.2', None) at 422, last entry ('10.0.2.3', 'a') at 65345
+        final ShardedGraphiteSender sender = new ShardedGraphiteSender(shards());
+        assertEquals(1, sender.shard("servers.host13221.cpu.total")); // 422
+        assertEquals(1, sender.shard("servers.host119.cpu.total")); // 65413
+    }
+
+    @Test
+    public void sendRoutesToShard() throws IOException {
+        final RecordingSender[] senders = {new RecordingSender(), new RecordingSender(), new RecordingSender()};
+        final ShardedGraphiteSender sender = new ShardedGraphiteSender(shards(senders));
+        sender.connect();
+        for (String path : new String[]{"jvm.memory.heap.used", "base.gc.count;name=G1", "vendor.cpu.load", "a", "servers.host119.cpu.total"}) {
+            sender.send(path, "1", 1);
+        }
+        sender.flush();
+        sender.close();
+        assertEquals(0, senders[0].names.size());
+        assertEquals(Arrays.asList("base.gc.count;name=G1", "vendor.cpu.load", "servers.host119.cpu.total"), senders[1].names);
+        assertEquals(Arrays.asList("jvm.memory.heap.used", "a"), senders[2].names);
+    }
+}
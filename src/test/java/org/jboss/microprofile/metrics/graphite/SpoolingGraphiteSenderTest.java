@@ -0,0 +1,157 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Order of data points replayed by {@link SpoolingGraphiteSender} after failures of the wrapped sender.
+ *
+ * @author Libor Krzyzanek
+ */
+public class SpoolingGraphiteSenderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AsciiRecordingGraphiteSender delegate = new AsciiRecordingGraphiteSender();
+
+    private SpoolingGraphiteSender sender(File directory) throws IOException, InterruptedException {
+        final SpoolingGraphiteSender sender = new SpoolingGraphiteSender(delegate, directory, 4096, 4, 1000000);
+        // accumulate replay budget
+        Thread.sleep(10);
+        return sender;
+    }
+
+    private static void report(SpoolingGraphiteSender sender, int... timestamps) throws IOException {
+        sender.connect();
+        for (int timestamp : timestamps) {
+            sender.send("m", "1", timestamp);
+        }
+        sender.flush();
+        sender.close();
+    }
+
+    private static List<String> lines(int... timestamps) {
+        final List<String> lines = new ArrayList<>();
+        for (int timestamp : timestamps) {
+            lines.add("m 1 " + timestamp);
+        }
+        return lines;
+    }
+
+    @Test
+    public void replayAfterConnectFailure() throws IOException, InterruptedException {
+        final SpoolingGraphiteSender sender = sender(folder.getRoot());
+        delegate.failConnect = true;
+        report(sender, 1, 2, 3);
+        assertEquals(3, sender.getSpooled());
+
+        delegate.failConnect = false;
+        report(sender, 4);
+        assertEquals(lines(1, 2, 3, 4), delegate.lines());
+        assertEquals(0, sender.getSpooled());
+    }
+
+    @Test
+    public void failedReplayKeepsOrder() throws IOException, InterruptedException {
+        final SpoolingGraphiteSender sender = sender(folder.getRoot());
+        delegate.failConnect = true;
+        report(sender, 1, 2, 3);
+
+        // replay of 2 fails, 1 was sent but not flushed
+        delegate.failConnect = false;
+        delegate.sendsBeforeFailure = 1;
+        report(sender, 4);
+        assertEquals(4, sender.getSpooled());
+
+        delegate.sendsBeforeFailure = -1;
+        delegate.clear();
+        report(sender, 5);
+        assertEquals(lines(1, 2, 3, 4, 5), delegate.lines());
+    }
+
+    @Test
+    public void failedFlushKeepsOrder() throws IOException, InterruptedException {
+        final SpoolingGraphiteSender sender = sender(folder.getRoot());
+        delegate.failConnect = true;
+        report(sender, 1, 2);
+
+        delegate.failConnect = false;
+        delegate.failFlush = true;
+        try {
+            report(sender, 3);
+            fail("flush failure is reported");
+        } catch (IOException expected) {
+            sender.close();
+        }
+        assertEquals(3, sender.getSpooled());
+
+        delegate.failFlush = false;
+        delegate.clear();
+        report(sender, 4);
+        assertEquals(lines(1, 2, 3, 4), delegate.lines());
+        assertEquals(0, sender.getSpooled());
+    }
+
+    @Test
+    public void asciiLinesAreJournaledAsBytes() throws IOException, InterruptedException {
+        final SpoolingGraphiteSender sender = sender(folder.getRoot());
+        assertTrue(sender.isAscii());
+        final byte[] path = "m".getBytes(StandardCharsets.US_ASCII);
+        final byte[] value = "1".getBytes(StandardCharsets.US_ASCII);
+        sender.connect();
+        sender.send(path, value, 1, " 1\n".getBytes(StandardCharsets.US_ASCII));
+        sender.send(path, value, 1, " 2\n".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(2, delegate.asciiLines);
+        // arrays are reused by the caller
+        value[0] = '9';
+
+        delegate.failFlush = true;
+        try {
+            sender.flush();
+            fail("flush failure is reported");
+        } catch (IOException expected) {
+            sender.close();
+        }
+        assertEquals(2, sender.getSpooled());
+
+        delegate.failFlush = false;
+        delegate.clear();
+        report(sender, 3);
+        assertEquals(lines(1, 2, 3), delegate.lines());
+    }
+
+    @Test
+    public void spoolSurvivesRestart() throws IOException, InterruptedException {
+        final File directory = folder.newFolder();
+        delegate.failConnect = true;
+        final SpoolingGraphiteSender first = sender(directory);
+        // 4 segments of 4096 bytes hold all of them
+        final int[] timestamps = new int[500];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = i;
+        }
+        report(first, timestamps);
+        first.disconnect();
+
+        delegate.failConnect = false;
+        final SpoolingGraphiteSender second = sender(directory);
+        assertEquals(500, second.getSpooled());
+        report(second);
+        assertEquals(lines(timestamps), delegate.lines());
+        assertEquals(0, second.getSpooled());
+        assertEquals(Arrays.asList(), Arrays.asList(directory.list((dir, name) -> !name.endsWith(".seg"))));
+    }
+}
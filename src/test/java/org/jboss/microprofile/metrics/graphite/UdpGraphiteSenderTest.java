@@ -0,0 +1,119 @@
+package org.jboss.microprofile.metrics.graphite;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Packing of lines into datagrams by {@link UdpGraphiteSender} against local {@link DatagramSocket}.
+ *
+ * @author Libor Krzyzanek
+ */
+public class UdpGraphiteSenderTest {
+
+    private DatagramSocket server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(10000);
+    }
+
+    @After
+    public void stopServer() {
+        server.close();
+    }
+
+    private UdpGraphiteSender sender(int datagramSize) {
+        return new UdpGraphiteSender((InetSocketAddress) server.getLocalSocketAddress(), datagramSize);
+    }
+
+    private String receive() throws IOException {
+        final DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        server.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+
+    private static String lines(String line, int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void linesArePackedIntoDatagrams() throws IOException {
+        // 6 lines of 6 bytes fit into 40 bytes
+        final UdpGraphiteSender sender = sender(40);
+        sender.connect();
+        for (int i = 0; i < 10; i++) {
+            sender.send("a", "1", 1);
+        }
+        sender.flush();
+        assertEquals(lines("a 1 1", 6), receive());
+        assertEquals(lines("a 1 1", 4), receive());
+
+        // line which exactly fills the datagram, then sanitized line
+        sender.send("name.of.34.bytes.................", "2", 3);
+        sender.send("b c", "1", 1);
+        sender.close();
+        assertEquals("name.of.34.bytes................. 2 3\n", receive());
+        assertEquals("b-c 1 1\n", receive());
+        assertEquals(0, sender.getDropped());
+    }
+
+    @Test
+    public void asciiLinesArePackedIntoDatagrams() throws IOException {
+        final UdpGraphiteSender sender = sender(40);
+        sender.connect();
+        final byte[] path = "a".getBytes(StandardCharsets.US_ASCII);
+        final byte[] value = "12".getBytes(StandardCharsets.US_ASCII);
+        final byte[] timestamp = " 1\n".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < 10; i++) {
+            sender.send(path, value, 1, timestamp);
+        }
+        sender.close();
+        assertEquals(lines("a 1 1", 6), receive());
+        assertEquals(lines("a 1 1", 4), receive());
+    }
+
+    @Test
+    public void longLineIsDropped() throws IOException {
+        final UdpGraphiteSender sender = sender(40);
+        sender.connect();
+        sender.send("a", "1", 1);
+        sender.send("name.longer.than.the.datagram.of.40.bytes", "1", 1);
+        sender.send("b", "1", 1);
+        sender.close();
+        assertEquals("a 1 1\n", receive());
+        assertEquals("b 1 1\n", receive());
+        assertEquals(1, sender.getDropped());
+    }
+
+    @Test
+    public void unreachablePortDoesNotFailSend() throws IOException, InterruptedException {
+        final UdpGraphiteSender sender = sender(40);
+        sender.connect();
+        server.close();
+        for (int i = 0; i < 5; i++) {
+            sender.send("a", "1", 1);
+            sender.flush();
+            // let ICMP port unreachable arrive
+            Thread.sleep(20);
+        }
+        sender.close();
+        assertEquals(0, sender.getFailures());
+        assertTrue(sender.getLost() > 0);
+    }
+}